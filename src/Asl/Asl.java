@@ -59,6 +59,24 @@ public class Asl{
     private static String tracefile = null;
     /** Flag to indicate whether the program must be executed after parsing. */
     private static boolean execute = true;
+    /** Name of the file storing the profile of the program. */
+    private static String profilefile = null;
+    /** Name of the file storing the metrics in JSON format. */
+    private static String statsfile = null;
+    /** Flag to indicate whether the metrics must be published in JMX. */
+    private static boolean jmx = false;
+    /** Maximum number of rows of the tables written by write. */
+    private static int maxrows = 0;
+    /** Flag to indicate whether the plans of the from blocks must be written. */
+    private static boolean explain = false;
+    /** Number of threads to evaluate from blocks. */
+    private static int parallelism = 1;
+    /** Maximum number of megabytes of the files cached by read_file (-1 for the default). */
+    private static long cachesize = -1;
+    /** Port of the server (-serve) or the server to connect (-connect). */
+    private static int port = -1;
+    /** Flag to indicate whether the interpreter must run as a server. */
+    private static boolean serve = false;
       
     /** Main program that invokes the parser and the interpreter. */
     
@@ -66,39 +84,37 @@ public class Asl{
         // Parser for command line options
         if (!readOptions (args)) System.exit(1);
 
-        // Parsing of the input file
-        
-        CharStream input = null;
-        try {
-            input = new ANTLRFileStream(infile);
-        } catch (IOException e) {
-            System.err.println ("Error: file " + infile + " could not be opened.");
-            System.exit(1);
+        TablePrinter.setMaxRows(maxrows);
+        if (cachesize >= 0) TableCache.setCapacity(cachesize << 20);
+
+        // Metrics of the table operations
+        if (statsfile != null) Metrics.dumpAtExit(statsfile);
+        if (jmx) Metrics.registerMBean();
+
+        // Server mode: execute the scripts submitted by the clients
+        if (serve) {
+            int nworkers = Runtime.getRuntime().availableProcessors();
+            new Server(port, nworkers, parallelism).serve();
+            return;
         }
 
-        // Creates the lexer
-        AslLexer lex = new AslLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lex);
+        // Client mode: execute the program in a server
+        if (port >= 0) {
+            if (!Server.submit(port, infile)) System.exit(1);
+            return;
+        }
 
-        // Creates and runs the parser. As a result, an AST is created
-        AslParser parser = new AslParser(tokens);
-        AslTreeAdaptor adaptor = new AslTreeAdaptor();
-        parser.setTreeAdaptor(adaptor);
-        AslParser.prog_return result = null;
+        // Parsing of the input file
+        Program program = null;
         try {
-            result = parser.prog();
-        } catch (Exception e) {} // Just catch the exception (nothing to do)
-        
-        // Check for parsing errors
-        int nerrors = parser.getNumberOfSyntaxErrors();
-        if (nerrors > 0) {
-            System.err.println (nerrors + " errors detected. " +
-                                "The program has not been executed.");
+            program = Program.parse(infile);
+        } catch (RuntimeException e) {
+            System.err.println ("Error: " + e.getMessage() + ".");
             System.exit(1);
         }
 
         // Get the AST
-        AslTree t = (AslTree)result.getTree();
+        AslTree t = program.getTree();
 
         // Generate a file for the AST (option -ast file)
         if (astfile != null) {
@@ -117,9 +133,13 @@ public class Asl{
         if (execute) {
             // Creates and prepares the interpreter
             Interp I = null;
+            Profiler profiler = profilefile == null ? null : new Profiler();
             int linenumber = -1;
             try {
-                I = new Interp(t, tracefile); // prepares the interpreter
+                I = new Interp(program, tracefile); // prepares the interpreter
+                I.setParallelism(parallelism);
+                I.setProfiler(profiler);
+                if (explain) I.setExplain(System.err);
                 I.Run();                  // Executes the code
             } catch (RuntimeException e) {
                 if (I != null) linenumber = I.lineNumber();
@@ -127,17 +147,25 @@ public class Asl{
                 if (linenumber < 0) System.err.print (": ");
                 else System.err.print (" (" + infile + ", line " + linenumber + "): ");
                 System.err.println (e.getMessage() + ".");
-                System.err.format (I.getStackTrace());
+                if (I != null) System.err.format (I.getStackTrace());
             } catch (StackOverflowError e) {
                 if (I != null) linenumber = I.lineNumber();
                 System.err.print("Stack overflow error");
                 if (linenumber < 0) System.err.print (".");
                 else System.err.println (" (" + infile + ", line " + linenumber + ").");
-                System.err.format (I.getStackTrace(5));
+                if (I != null) System.err.format (I.getStackTrace(5));
             }
+            if (profiler != null) profiler.write(profilefile);
         }
     }
 
+    /** Returns an option with an argument. */
+    private static Option argOption(String name, String argName, String description) {
+        Option res = new Option(name, true, description);
+        res.setArgName(argName);
+        return res;
+    }
+
     /**
      * Function to parse the command line. It defines some of
      * the attributes of the class. It returns true if the parsing
@@ -149,23 +177,33 @@ public class Asl{
         Option help = new Option("help", "print this message");
         Option noexec = new Option("noexec", "do not execute the program");
         Option dot = new Option("dot", "dump the AST in dot format");
-        Option ast = OptionBuilder
-                        .withArgName ("file")
-                        .hasArg()
-                        .withDescription ("write the AST")
-                        .create ("ast");
-        Option trace = OptionBuilder
-                        .withArgName ("file")
-                        .hasArg()
-                        .withDescription ("write a trace of function calls during the execution of the program")
-                        .create ("trace");
-                                       
+        Option ast = argOption("ast", "file", "write the AST");
+        Option trace = argOption("trace", "file", "write a binary trace of function calls during the execution of the program (see AslTrace)");
+        Option profile = argOption("profile", "file", "write a profile of the execution (and the collapsed stacks in file.folded)");
+        Option stats = argOption("stats", "file", "write the metrics of the table operations in JSON format at exit");
+        Option jmxopt = new Option("jmx", "publish the metrics of the table operations in JMX");
+        Option rows = argOption("maxrows", "n", "write only the first and last rows of tables with more than n rows");
+        Option explainopt = new Option("explain", "write the plan of each from block on the standard error");
+        Option parallel = argOption("parallel", "threads", "evaluate from blocks on large tables with several threads");
+        Option cache = argOption("cache", "MB", "maximum size of the files whose tables are cached by read_file (0 disables the cache)");
+        Option server = argOption("serve", "port", "run as a server executing the scripts submitted on the loopback port");
+        Option connect = argOption("connect", "port", "execute the program in the server listening on the port");
+
         Options options = new Options();
         options.addOption(help);
         options.addOption(dot);
         options.addOption(ast);
         options.addOption(trace);
         options.addOption(noexec);
+        options.addOption(profile);
+        options.addOption(stats);
+        options.addOption(jmxopt);
+        options.addOption(rows);
+        options.addOption(explainopt);
+        options.addOption(parallel);
+        options.addOption(cache);
+        options.addOption(server);
+        options.addOption(connect);
         CommandLineParser clp = new GnuParser();
         CommandLine line = null;
 
@@ -199,9 +237,67 @@ public class Asl{
         // Option -trace dotfile
         if (line.hasOption ("trace")) tracefile = line.getOptionValue ("trace");
         
+        // Option -profile file
+        if (line.hasOption ("profile")) profilefile = line.getOptionValue ("profile");
+
+        // Option -stats file
+        if (line.hasOption ("stats")) statsfile = line.getOptionValue ("stats");
+
+        // Option -jmx
+        if (line.hasOption ("jmx")) jmx = true;
+
+        // Option -explain
+        if (line.hasOption ("explain")) explain = true;
+
         // Option -noexec
         if (line.hasOption ("noexec")) execute = false;
 
+        // Option -maxrows n
+        if (line.hasOption ("maxrows")) {
+            try {
+                maxrows = Integer.parseInt(line.getOptionValue ("maxrows"));
+            } catch (NumberFormatException e) {
+                System.err.println ("Incorrect number of rows: " + line.getOptionValue ("maxrows"));
+                return false;
+            }
+        }
+
+        // Option -parallel threads
+        if (line.hasOption ("parallel")) {
+            try {
+                parallelism = Integer.parseInt(line.getOptionValue ("parallel"));
+            } catch (NumberFormatException e) {
+                System.err.println ("Incorrect number of threads: " + line.getOptionValue ("parallel"));
+                return false;
+            }
+        }
+
+        // Option -cache MB
+        if (line.hasOption ("cache")) {
+            try {
+                cachesize = Long.parseLong(line.getOptionValue ("cache"));
+            } catch (NumberFormatException e) {
+                cachesize = -1;
+            }
+            if (cachesize < 0) {
+                System.err.println ("Incorrect cache size: " + line.getOptionValue ("cache"));
+                return false;
+            }
+        }
+
+        // Option -serve port or -connect port
+        if (line.hasOption ("serve") || line.hasOption ("connect")) {
+            serve = line.hasOption ("serve");
+            String p = line.getOptionValue (serve ? "serve" : "connect");
+            try {
+                port = Integer.parseInt(p);
+            } catch (NumberFormatException e) {
+                System.err.println ("Incorrect port: " + p);
+                return false;
+            }
+            if (serve) return true;
+        }
+
         // Remaining arguments (the input file)
         String[] files = line.getArgs();
         if (files.length != 1) {
@@ -0,0 +1,178 @@
+package Asl;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import interp.*;
+
+/**
+ * Server that executes MoJo scripts on a warm JVM. It listens on a
+ * loopback port and executes each submitted script on a pool of worker
+ * threads. Parsed programs are kept in the cache of {@link Program}, so
+ * a script is only parsed again when its file changes.
+ *
+ * The protocol is binary (see {@link DataOutputStream}). The client
+ * sends the path of the script as a UTF string. The server answers with
+ * a sequence of frames: OUTPUT frames with the bytes written by the
+ * program and a final RESULT frame (the value returned by main) or
+ * ERROR frame (the error message). Then the connection is closed.
+ * Scripts executed by the server have an empty standard input and
+ * relative file names are resolved from the directory of the server.
+ */
+
+public class Server {
+
+    /** Frame with a chunk of the standard output (int length + bytes). */
+    public static final byte OUTPUT = 'O';
+    /** Final frame with the result of the program (int length + UTF-8 bytes). */
+    public static final byte RESULT = 'R';
+    /** Final frame with an error message (int length + UTF-8 bytes). */
+    public static final byte ERROR = 'E';
+
+    private final int port;
+    private final int parallelism;
+    private final ExecutorService workers;
+
+    /**
+     * Creates a server.
+     * @param port The loopback port.
+     * @param nworkers Number of scripts executed concurrently.
+     * @param parallelism Number of threads to evaluate from blocks.
+     */
+    public Server(int port, int nworkers, int parallelism) {
+        this.port = port;
+        this.parallelism = parallelism;
+        workers = Executors.newFixedThreadPool(nworkers);
+    }
+
+    /** Accepts connections until the process is killed. */
+    public void serve() throws IOException {
+        ServerSocket listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.err.println("Listening on " + listener.getLocalSocketAddress());
+        while (true) {
+            final Socket client = listener.accept();
+            workers.execute(() -> handle(client));
+        }
+    }
+
+    /** Executes the script requested by a client. */
+    private void handle(Socket client) {
+        try (Socket s = client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            String file = in.readUTF();
+            String error = null;
+            Data result = null;
+            Interp I = null;
+            PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out)), true);
+            try {
+                Program program = Program.load(file);
+                I = new Interp(program, (String) null);
+                I.setInput(new ByteArrayInputStream(new byte[0]));
+                I.setOutput(stdout);
+                I.setParallelism(parallelism);
+                result = I.Run();
+            } catch (RuntimeException e) {
+                error = I == null ? "Error: " + e.getMessage() + ".\n"
+                                  : runtimeError(I, file, "Runtime error", e.getMessage())
+                                    + String.format(I.getStackTrace());
+            } catch (StackOverflowError e) {
+                error = runtimeError(I, file, "Stack overflow error", null) + String.format(I.getStackTrace(5));
+            } catch (Throwable e) {
+                // Other errors (e.g. failed assertions or no memory) end the script, not the connection
+                error = I == null ? "Error: " + e + ".\n"
+                                  : runtimeError(I, file, "Internal error", e.toString())
+                                    + String.format(I.getStackTrace());
+            }
+            stdout.flush();
+            if (error == null) {
+                writeFrame(out, RESULT, result.getKind() == DataKind.VOID ? "" : result.toString());
+            } else {
+                writeFrame(out, ERROR, error);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // The client closed the connection: nothing to report
+        }
+    }
+
+    private static void writeFrame(DataOutputStream out, byte kind, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(kind);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readFrame(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the message of an error in the same format as Asl. */
+    private static String runtimeError(Interp I, String file, String kind, String msg) {
+        int linenumber = I.lineNumber();
+        String res = kind;
+        if (linenumber >= 0) res += " (" + file + ", line " + linenumber + ")";
+        if (msg != null) res += ": " + msg;
+        return res + ".\n";
+    }
+
+    /**
+     * Sends a script to a server and copies the output and the errors
+     * to the standard streams.
+     * @return True if the script was executed without errors.
+     */
+    public static boolean submit(int port, String file) throws IOException {
+        String path = new File(file).getAbsolutePath();
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            out.writeUTF(path);
+            out.flush();
+            while (true) {
+                byte kind = in.readByte();
+                if (kind == OUTPUT) {
+                    byte[] chunk = new byte[in.readInt()];
+                    in.readFully(chunk);
+                    System.out.write(chunk);
+                    System.out.flush();
+                } else if (kind == RESULT) {
+                    String result = readFrame(in);
+                    if (!result.isEmpty()) System.out.println(result);
+                    return true;
+                } else {
+                    System.err.print(readFrame(in));
+                    return false;
+                }
+            }
+        }
+    }
+
+    /** Stream that sends the written bytes to the client as OUTPUT frames. */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+
+        FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            out.writeByte(OUTPUT);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
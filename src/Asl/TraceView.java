@@ -0,0 +1,30 @@
+package Asl;
+
+import java.io.*;
+
+import interp.*;
+
+/**
+ * The class <code>TraceView</code> writes the text version of a trace
+ * generated with the option -trace of Asl. The trace is read from the
+ * file given as argument and written in the standard output.
+ */
+
+public class TraceView {
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: AslTrace tracefile");
+            System.exit(1);
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+        try (InputStream in = new FileInputStream(args[0])) {
+            TraceWriter.render(in, out);
+        } catch (IOException e) {
+            out.flush();
+            System.err.println("Error: " + args[0] + ": " + e.getMessage() + ".");
+            System.exit(1);
+        }
+        out.flush();
+    }
+}
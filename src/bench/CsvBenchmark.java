@@ -0,0 +1,57 @@
+package bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import interp.*;
+
+/**
+ * Benchmarks of read_file and write_file on generated CSV files from
+ * 10^4 to 10^7 rows. The files are generated once and kept in the
+ * temporary directory (see {@link DataGenerator}).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class CsvBenchmark {
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private File input;
+    private File output;
+    private TableData table;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        input = DataGenerator.csv(rows);
+        output = File.createTempFile("mojo-bench-out", ".csv");
+        output.deleteOnExit();
+        table = DataGenerator.readCsv(input);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Benchmark
+    public TableData readFile() {
+        return DataGenerator.readCsv(input);
+    }
+
+    @Benchmark
+    public Data writeFile() {
+        ArrayList<Data> args = new ArrayList<Data>();
+        args.add(table);
+        args.add(new StringData(output.getPath()));
+        return FuncFactory.getinstance().getFunction("write_file").call(args);
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import interp.*;
+
+/**
+ * Generators of the data used by the benchmarks. The data only depends
+ * on the number of rows and the seed, so the results of different runs
+ * (and different versions of the interpreter) can be compared.
+ *
+ * The generated tables have the columns id (Integer, consecutive),
+ * group (String, 16 different values), value (Float, uniform in
+ * [0, 1000)), count (Integer, uniform in [0, 100)) and flag (Boolean).
+ * One of every 50 values of count is missing.
+ */
+
+public class DataGenerator {
+
+    /** Seed used when none is given. */
+    public static final long SEED = 20111;
+
+    private static final String HEADER = "id,group,value,count,flag";
+
+    /** Writes a CSV file with the given number of rows. */
+    public static void writeCsv(File file, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter w = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            w.write(HEADER);
+            w.newLine();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < rows; ++i) {
+                line.setLength(0);
+                line.append(i).append(",'g").append(random.nextInt(16)).append("',");
+                line.append(random.nextInt(1000000) / 1000.0).append(',');
+                int count = random.nextInt(100);
+                if (random.nextInt(50) != 0) line.append(count);
+                line.append(',').append(random.nextBoolean());
+                w.write(line.toString());
+                w.newLine();
+            }
+        }
+    }
+
+    /**
+     * Returns a CSV file with the given number of rows. The file is
+     * created in the temporary directory the first time it is requested
+     * and reused afterwards.
+     */
+    public static File csv(int rows) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"),
+                             "mojo-bench-" + rows + "-" + SEED + ".csv");
+        if (!file.exists()) {
+            File partial = new File(file.getPath() + ".tmp");
+            writeCsv(partial, rows, SEED);
+            if (!partial.renameTo(file)) throw new IOException("cannot create " + file);
+        }
+        return file;
+    }
+
+    /** Returns a table with the contents of a generated CSV file. */
+    public static TableData table(int rows) throws IOException {
+        return readCsv(csv(rows));
+    }
+
+    /** Reads a CSV file with the read_file special function. */
+    public static TableData readCsv(File file) {
+        ArrayList<Data> args = new ArrayList<Data>();
+        args.add(new StringData(file.getPath()));
+        return TableData.cast(FuncFactory.getinstance().getFunction("read_file").call(args));
+    }
+
+    /**
+     * Creates a program from its source code. The source is written
+     * in a temporary file that is parsed with {@link Program#parse}.
+     */
+    public static Program program(String source) throws IOException {
+        File file = File.createTempFile("mojo-bench", ".mj");
+        file.deleteOnExit();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        return Program.parse(file.getPath());
+    }
+
+    /** Creates an interpreter for the program that discards its output. */
+    public static Interp interpreter(Program program) {
+        Interp I = new Interp(program, (String) null);
+        I.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+        return I;
+    }
+}
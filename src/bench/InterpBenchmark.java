@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import interp.*;
+
+/**
+ * Benchmarks of the execution of statements and expressions: a while
+ * loop with integer arithmetic and recursive calls of a user function.
+ * The programs are parsed once, so only the interpretation is measured.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpBenchmark {
+
+    private static final String SOURCE =
+        "function loop(n)\n" +
+        "    i = 0\n" +
+        "    s = 0\n" +
+        "    while (i < n)\n" +
+        "        s = s + (i * i) % 7 - i / 3\n" +
+        "        i = i + 1\n" +
+        "    end\n" +
+        "    return s\n" +
+        "end\n" +
+        "function fib(n)\n" +
+        "    if (n < 2) return n end\n" +
+        "    return fib(n - 1) + fib(n - 2)\n" +
+        "end\n" +
+        "function main()\n" +
+        "    return\n" +
+        "end\n";
+
+    @Param({"100000"})
+    public int iterations;
+
+    @Param({"20"})
+    public int depth;
+
+    private Interp I;
+
+    @Setup
+    public void setup() throws Exception {
+        I = DataGenerator.interpreter(DataGenerator.program(SOURCE));
+    }
+
+    private static ArrayList<Data> args(long n) {
+        ArrayList<Data> args = new ArrayList<Data>();
+        args.add(IntegerData.valueOf(n));
+        return args;
+    }
+
+    @Benchmark
+    public Data whileLoop() {
+        return I.Run("loop", args(iterations));
+    }
+
+    @Benchmark
+    public Data recursiveCalls() {
+        return I.Run("fib", args(depth));
+    }
+}
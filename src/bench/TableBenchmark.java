@@ -0,0 +1,88 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import interp.*;
+
+/**
+ * Benchmarks of the table engine: from blocks (select, filter and
+ * update), deep copies of large tables and tables built with add_row!
+ * in a loop of the interpreter.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class TableBenchmark {
+
+    private static final String SOURCE =
+        "function selectRows(t)\n" +
+        "    return from t select (:\"value\" > 500.0 and :\"group\" = \"g3\") end\n" +
+        "end\n" +
+        "function filterRows(t)\n" +
+        "    return from t filter (:\"id\" % 2 = 0) end\n" +
+        "end\n" +
+        "function updateRows(t)\n" +
+        "    return from t update \"count\" when :\"value\" < 100.0 with 0 end\n" +
+        "end\n" +
+        "function build(n)\n" +
+        "    t = create_table([\"id\", \"group\", \"value\"])\n" +
+        "    i = 0\n" +
+        "    while (i < n)\n" +
+        "        add_row!(t, {\"id\":i, \"group\":\"g\", \"value\":i * 0.5})\n" +
+        "        i = i + 1\n" +
+        "    end\n" +
+        "    return t\n" +
+        "end\n" +
+        "function main()\n" +
+        "    return\n" +
+        "end\n";
+
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    private Interp I;
+    private TableData table;
+    private ArrayList<Data> tableArg;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        I = DataGenerator.interpreter(DataGenerator.program(SOURCE));
+        table = DataGenerator.table(rows);
+        tableArg = new ArrayList<Data>();
+        tableArg.add(table);
+    }
+
+    @Benchmark
+    public Data fromSelect() {
+        return I.Run("selectRows", tableArg);
+    }
+
+    @Benchmark
+    public Data fromFilter() {
+        return I.Run("filterRows", tableArg);
+    }
+
+    @Benchmark
+    public Data fromUpdate() {
+        return I.Run("updateRows", tableArg);
+    }
+
+    @Benchmark
+    public TableData deepClone() {
+        return table.deepClone();
+    }
+
+    @Benchmark
+    public Data addRowLoop() {
+        ArrayList<Data> args = new ArrayList<Data>();
+        args.add(IntegerData.valueOf(Math.min(rows, 100000)));
+        return I.Run("build", args);
+    }
+}
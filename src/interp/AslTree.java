@@ -36,15 +36,38 @@ import org.antlr.runtime.Token;
  * This class is not strictly necessary, since the literals could
  * be extracted from the "text" fields of the tokens.
  * However, it helps to understand how to extend AST nodes in ANTLR.
+ *
+ * The tree is shared by the interpreters that run the same program
+ * concurrently (see {@link Program}). The literals and the types are
+ * written while the program is built and are read-only afterwards.
+ * The caches (inline caches, plans and typed conditions) are
+ * written while the program runs: they hold immutable objects that
+ * depend only on the tree and on data checked when they are read, and
+ * the fields are volatile, so any interpreter may replace them.
  */
  
 public class AslTree extends CommonTree {
     /** Field to store integer literals */
-    private int intValue;
+    private long intValue;
+
+    /** Field to store float literals */
+    private double floatValue;
 
     /** Field to store string literals (without the enclosing quotes) */
     private String strValue;
 
+    /** Type of the values of the expression (null if unknown, see TypeInference) */
+    private DataKind kind;
+
+    /** Inline cache of the dictionary keys and literals (see Shape) */
+    private volatile Shape.Site site;
+
+    /** Plan of the actions of a from block (see FromPlan) */
+    private volatile FromPlan plan;
+
+    /** Typed tree of a from condition (see ExprCompiler) */
+    private volatile ExprCompiler.Typed typed;
+
     /** Constructor of the class */
     public AslTree(Token t) {
         super(t);
@@ -56,10 +79,16 @@ public class AslTree extends CommonTree {
     }
 
     /** Get the integer value of the node. */
-    public int getIntValue() { return intValue;}
+    public long getIntValue() { return intValue;}
 
     /** Define the integer value of the node. */
-    public void setIntValue() { intValue = Integer.parseInt(getText()); }
+    public void setIntValue() { intValue = Long.parseLong(getText()); }
+
+    /** Get the float value of the node. */
+    public double getFloatValue() { return floatValue;}
+
+    /** Define the float value of the node. */
+    public void setFloatValue() { floatValue = Double.parseDouble(getText()); }
 
     /** Get the Boolean value of the node. */
     public boolean getBooleanValue() { return intValue != 0; }
@@ -81,4 +110,28 @@ public class AslTree extends CommonTree {
         // Do not store the " at the extremes of the string
         strValue = s.substring(1,s.length()-1);
     }
+
+    /** Get the inferred type of the expression (null if unknown). */
+    public DataKind getKind() { return kind; }
+
+    /** Define the inferred type of the expression. */
+    public void setKind(DataKind k) { kind = k; }
+
+    /** Get the inline cache of the node (null if it has not been used). */
+    public Shape.Site getSite() { return site; }
+
+    /** Define the inline cache of the node. */
+    public void setSite(Shape.Site s) { site = s; }
+
+    /** Get the plan of the from actions (null if it has not been built). */
+    public FromPlan getPlan() { return plan; }
+
+    /** Define the plan of the from actions. */
+    public void setPlan(FromPlan p) { plan = p; }
+
+    /** Get the typed tree of the condition (null if it has not been typed). */
+    public ExprCompiler.Typed getTyped() { return typed; }
+
+    /** Define the typed tree of the condition. */
+    public void setTyped(ExprCompiler.Typed t) { typed = t; }
 }
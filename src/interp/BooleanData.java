@@ -32,7 +32,7 @@ public class BooleanData extends Data {
     return value == bd.value;
   }
 
-  public String getType() { return "Boolean"; }
+  public DataKind getKind() { return DataKind.BOOLEAN; }
 
   public String toString() {
     return Boolean.toString(value);
@@ -55,7 +55,7 @@ public class BooleanData extends Data {
   * @return A Boolean data with the value of the expression.
   */
   public BooleanData evaluateRelational (int op, Data data) {
-    if ("Boolean" != data.getType())
+    if (data.getKind() != DataKind.BOOLEAN)
       return new BooleanData(false);
 
     BooleanData d = (BooleanData) data;
@@ -0,0 +1,118 @@
+package interp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only column formed by the concatenation of other columns (the
+ * chunks). It is the storage of merged tables, so merging does not copy
+ * the cells. The chunks are shared with the merged tables and the column
+ * itself is always shared: a table that modifies it replaces it by a
+ * column with a copy of all the cells.
+ */
+
+public class ChunkedColumn extends Column {
+
+    private final String type;
+    private final Column[] chunks;
+    /** Position of the first row of each chunk. */
+    private final int[] starts;
+    /** Integer cells of Float columns are read as Float values. */
+    private final boolean toFloat;
+    /** Chunk of the last accessed row (hint for sequential scans). */
+    private int last = 0;
+
+    /**
+     * Creates the concatenation of the columns, which must be able to
+     * hold values of the type (Integer columns in Float columns).
+     */
+    public ChunkedColumn(String type, List<Column> columns) {
+      ArrayList<Column> list = new ArrayList<Column>();
+      for (Column c : columns) {
+        if (c instanceof ChunkedColumn) list.addAll(Arrays.asList(((ChunkedColumn) c).chunks));
+        else if (c.size() > 0) list.add(c.share());
+      }
+      this.type = type;
+      this.toFloat = type.equals("Float");
+      chunks = list.toArray(new Column[0]);
+      starts = new int[chunks.length];
+      for (int k=0; k<chunks.length; k++) {
+        starts[k] = size;
+        size += chunks[k].size();
+      }
+      share();
+    }
+
+    /** Returns the number of chunks. */
+    public int chunks() {
+      return chunks.length;
+    }
+
+    /** Returns the k-th chunk. */
+    Column getChunk(int k) {
+      return chunks[k];
+    }
+
+    /** Returns the chunk that contains the row. */
+    private int chunk(int row) {
+      int k = last;
+      if (k < chunks.length && starts[k] <= row && row - starts[k] < chunks[k].size()) return k;
+      k = Arrays.binarySearch(starts, row);
+      if (k < 0) k = -k - 2;
+      last = k;
+      return k;
+    }
+
+    public Data get(int row) {
+      int k = chunk(row);
+      Data d = chunks[k].get(row - starts[k]);
+      if (toFloat && d instanceof IntegerData) return new FloatData(((IntegerData) d).getValue());
+      return d;
+    }
+
+    public boolean isVoid(int row) {
+      int k = chunk(row);
+      return chunks[k].isVoid(row - starts[k]);
+    }
+
+    public void set(int row, Data d) {
+      throw new RuntimeException("Chunked columns are read-only");
+    }
+
+    public void clear(int row) {
+      throw new RuntimeException("Chunked columns are read-only");
+    }
+
+    public void resize(int n) {
+      throw new RuntimeException("Chunked columns are read-only");
+    }
+
+    public void remove(int row) {
+      throw new RuntimeException("Chunked columns are read-only");
+    }
+
+    /** Returns a column that stores all the cells. */
+    public Column copy() {
+      Column res = Column.create(type);
+      res.resize(size);
+      int row = 0;
+      for (Column c : chunks) {
+        for (int i=0; i<c.size(); i++, row++) {
+          if (!c.isVoid(i)) res.set(row, c.get(i));
+        }
+      }
+      return res;
+    }
+
+    public Column select(int[] rows) {
+      Column res = Column.create(type);
+      res.resize(rows.length);
+      for (int i=0; i<rows.length; i++) {
+        int k = chunk(rows[i]);
+        int r = rows[i] - starts[k];
+        if (!chunks[k].isVoid(r)) res.set(i, chunks[k].get(r));
+      }
+      return res;
+    }
+}
@@ -0,0 +1,69 @@
+package interp;
+
+/**
+ * Storage of a single column of a table. Cells are addressed by their
+ * row position and a missing cell is reported as Void. Numeric columns
+ * keep their values in primitive arrays, so reading a cell may build a
+ * new Data object instead of returning the stored one.
+ *
+ * A column can be shared by several tables (copies of a table and
+ * views of its rows). Shared columns are never modified: the table
+ * that needs to modify one replaces it with a copy first.
+ */
+
+public abstract class Column {
+
+    /** Number of rows of the column (including missing cells). */
+    protected int size = 0;
+
+    /** Flag indicating whether the column is referenced by more than one table. */
+    private boolean shared = false;
+
+    public int size() {
+      return size;
+    }
+
+    public boolean isShared() {
+      return shared;
+    }
+
+    /** Marks the column as shared and returns it. */
+    public Column share() {
+      shared = true;
+      return this;
+    }
+
+    /** Returns the value of the cell (Void if it is missing). */
+    public abstract Data get(int row);
+
+    public abstract boolean isVoid(int row);
+
+    /** Stores a copy of a non-Void value in the cell. */
+    public abstract void set(int row, Data d);
+
+    /** Marks the cell as missing. */
+    public abstract void clear(int row);
+
+    /** Changes the number of rows. New rows are missing cells. */
+    public abstract void resize(int n);
+
+    public abstract void remove(int row);
+
+    public abstract Column copy();
+
+    /** Returns a new column with the cells of the given rows, in order. */
+    public abstract Column select(int[] rows);
+
+    /** Creates an empty column able to store values of the type. */
+    public static Column create(String type) {
+      if (type.equals("Integer")) return new IntegerColumn();
+      if (type.equals("Float")) return new FloatColumn();
+      return new DataColumn();
+    }
+
+    static int grow(int capacity, int n) {
+      int res = capacity < 8 ? 8 : capacity;
+      while (res < n) res += res >> 1;
+      return res;
+    }
+}
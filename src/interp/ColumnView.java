@@ -0,0 +1,75 @@
+package interp;
+
+/**
+ * Read-only column with a selection of the rows of another column. It
+ * is the storage of the tables produced by select and filter, so the
+ * surviving rows are not copied. Views are always shared: a table that
+ * modifies one replaces it by a copy of the selected cells.
+ */
+
+public class ColumnView extends Column {
+
+    private final Column base;
+    private final int[] rows;
+
+    /** Creates a view of the rows of a column (the array is not copied). */
+    public ColumnView(Column base, int[] rows) {
+      if (base instanceof ColumnView) {
+        // Views of views select directly from the original column
+        ColumnView view = (ColumnView) base;
+        int[] composed = new int[rows.length];
+        for (int i=0; i<rows.length; i++) composed[i] = view.rows[rows[i]];
+        base = view.base;
+        rows = composed;
+      }
+      this.base = base.share();
+      this.rows = rows;
+      size = rows.length;
+      share();
+    }
+
+    /** Returns the column whose rows are selected. */
+    Column base() {
+      return base;
+    }
+
+    /** Returns the selected rows of the base column. */
+    int[] rows() {
+      return rows;
+    }
+
+    public Data get(int row) {
+      return base.get(rows[row]);
+    }
+
+    public boolean isVoid(int row) {
+      return base.isVoid(rows[row]);
+    }
+
+    public void set(int row, Data d) {
+      throw new RuntimeException("Column views are read-only");
+    }
+
+    public void clear(int row) {
+      throw new RuntimeException("Column views are read-only");
+    }
+
+    public void resize(int n) {
+      throw new RuntimeException("Column views are read-only");
+    }
+
+    public void remove(int row) {
+      throw new RuntimeException("Column views are read-only");
+    }
+
+    /** Returns a column that stores the selected cells. */
+    public Column copy() {
+      return base.select(rows);
+    }
+
+    public Column select(int[] sel) {
+      int[] r = new int[sel.length];
+      for (int i=0; i<sel.length; i++) r[i] = rows[sel[i]];
+      return base.select(r);
+    }
+}
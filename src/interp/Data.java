@@ -29,8 +29,8 @@ package interp;
 
 /**
  * Class to represent data in the interpreter.
- * Each data item has a type and a value. The type can be integer
- * or Boolean. Each operation asserts that the operands have the
+ * Each data item has a type and a value. The type can be integer,
+ * float or Boolean. Each operation asserts that the operands have the
  * appropriate types.
  * All the arithmetic and Boolean operations are calculated in-place,
  * i.e., the result is stored in the same data.
@@ -38,6 +38,7 @@ package interp;
  */
 
 import parser.*;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -46,7 +47,12 @@ public abstract class Data {
 
   public abstract Data deepClone();
 
-  public abstract String getType();
+  public abstract DataKind getKind();
+
+  /** Returns the name of the type (e.g. Integer). */
+  public String getType() {
+    return getKind().toString();
+  }
 
   public abstract void setValue(Data d);
 
@@ -60,8 +66,33 @@ public abstract class Data {
     throw new RuntimeException("Data type not supported to be indexed");
   }
 
-  public static boolean isType (String type, Data b) {
-      return b.getType() == type;
+  /**
+   * Writes the text of the data (used by write and writeln). As for the
+   * string literals, the text is a format string, so e.g. %n is written
+   * as a new line.
+   */
+  public void print(PrintStream out) {
+    out.format(toString());
+  }
+
+  public static boolean isType (DataKind kind, Data b) {
+      return b.getKind() == kind;
+  }
+
+  /**
+   * Checks whether two data can be compared with relational operators:
+   * both have the same type, both are numeric or one of them is Void
+   * (e.g. a missing cell of a table).
+   */
+  public static boolean comparable (Data a, Data b) {
+      DataKind ka = a.getKind(), kb = b.getKind();
+      return ka == kb || (ka.isNumeric() && kb.isNumeric())
+        || ka == DataKind.VOID || kb == DataKind.VOID;
+  }
+
+  /** Checks whether the data is an Integer or a Float. */
+  public static boolean isNumeric (Data b) {
+      return b instanceof IntegerData || b instanceof FloatData;
   }
 
   // Transoform object to Data equivalent
@@ -73,7 +104,13 @@ public abstract class Data {
       return new BooleanData(data);
   }
   public static Data toData(Integer data) {
-      return new IntegerData(data);
+      return IntegerData.valueOf(data);
+  }
+  public static Data toData(Long data) {
+      return IntegerData.valueOf(data);
+  }
+  public static Data toData(Double data) {
+      return new FloatData(data);
   }
   public static Data toData(String data) {
       return new StringData(data);
@@ -93,19 +130,63 @@ public abstract class Data {
     return res;
   }
 
+  /**
+   * Parses the textual representation of a value (e.g. a field of
+   * a CSV file). Numbers are recognized without regular expressions,
+   * quoted text is a String and any other text is taken verbatim.
+   */
   public static Data parse(String elem) {
-    elem = elem.trim();
-    if (elem.length() == 0)
+    int start = 0;
+    int end = elem.length();
+    while (start < end && elem.charAt(start) <= ' ') start++;
+    while (end > start && elem.charAt(end-1) <= ' ') end--;
+    if (start == end)
       return new VoidData();
+    switch (NumberParser.scan(elem, start, end)) {
+      case NumberParser.INTEGER:
+        // Integers that do not fit in 64 bits are loaded as Float
+        try {
+          return IntegerData.valueOf(NumberParser.parseLong(elem, start, end));
+        } catch (NumberFormatException e) {
+          return new FloatData(NumberParser.parseDouble(elem, start, end));
+        }
+      case NumberParser.FLOAT:
+        return new FloatData(NumberParser.parseDouble(elem, start, end));
+      default: break;
+    }
+    elem = elem.substring(start, end);
     if (elem.equals("true"))
       return new BooleanData(true);
     if (elem.equals("false"))
       return new BooleanData(false);
-    if (elem != null && elem.matches("[-+]?\\d*\\.?\\d+"))
-      return new IntegerData(Integer.parseInt(elem));
-    if (elem.charAt(elem.length()-1) == '\'' && elem.charAt(0) == '\'')
+    if (elem.length() > 1 && elem.charAt(elem.length()-1) == '\'' && elem.charAt(0) == '\'')
       return new StringData(elem.substring(1,elem.length()-1));
-    throw new RuntimeException("Can't parse " + elem);
+    return new StringData(elem);
+  }
+
+  /** Returns the type of the value returned by parse, without building it. */
+  public static String parseType(String elem) {
+    int start = 0;
+    int end = elem.length();
+    while (start < end && elem.charAt(start) <= ' ') start++;
+    while (end > start && elem.charAt(end-1) <= ' ') end--;
+    if (start == end)
+      return "Void";
+    switch (NumberParser.scan(elem, start, end)) {
+      case NumberParser.INTEGER:
+        try {
+          NumberParser.parseLong(elem, start, end);
+          return "Integer";
+        } catch (NumberFormatException e) {
+          return "Float";
+        }
+      case NumberParser.FLOAT:
+        return "Float";
+      default: break;
+    }
+    if (elem.startsWith("true", start) && end - start == 4) return "Boolean";
+    if (elem.startsWith("false", start) && end - start == 5) return "Boolean";
+    return "String";
   }
 
 }
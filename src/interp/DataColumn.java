@@ -0,0 +1,64 @@
+package interp;
+import java.util.Arrays;
+
+/**
+ * Column storing its cells as Data objects. It is used for the
+ * types without a primitive representation. Missing cells are null.
+ */
+
+public class DataColumn extends Column {
+
+    private Data[] cells;
+
+    public DataColumn() { cells = new Data[0]; }
+
+    private DataColumn(Data[] c, int n) {
+      cells = c;
+      size = n;
+    }
+
+    public Data get(int row) {
+      Data d = cells[row];
+      return d == null ? new VoidData() : d;
+    }
+
+    public boolean isVoid(int row) {
+      return cells[row] == null;
+    }
+
+    public void set(int row, Data d) {
+      cells[row] = d.deepClone();
+    }
+
+    public void clear(int row) {
+      cells[row] = null;
+    }
+
+    public void resize(int n) {
+      if (n > cells.length) cells = Arrays.copyOf(cells, grow(cells.length, n));
+      else if (n < size) Arrays.fill(cells, n, size, null);
+      size = n;
+    }
+
+    public void remove(int row) {
+      System.arraycopy(cells, row+1, cells, row, size-row-1);
+      cells[--size] = null;
+    }
+
+    public Column copy() {
+      Data[] c = new Data[size];
+      for (int i=0; i<size; i++) {
+        if (cells[i] != null) c[i] = cells[i].deepClone();
+      }
+      return new DataColumn(c, size);
+    }
+
+    public Column select(int[] rows) {
+      Data[] c = new Data[rows.length];
+      for (int i=0; i<rows.length; i++) {
+        Data d = cells[rows[i]];
+        if (d != null) c[i] = d.deepClone();
+      }
+      return new DataColumn(c, rows.length);
+    }
+}
@@ -0,0 +1,29 @@
+package interp;
+
+/** Types of the values of the language (see {@link Data#getKind}). */
+
+public enum DataKind {
+    VOID("Void"),
+    BOOLEAN("Boolean"),
+    INTEGER("Integer"),
+    FLOAT("Float"),
+    STRING("String"),
+    LIST("List"),
+    DICT("Dict"),
+    TABLE("Table");
+
+    private final String name;
+
+    DataKind(String name) {
+        this.name = name;
+    }
+
+    public boolean isNumeric() {
+        return this == INTEGER || this == FLOAT;
+    }
+
+    /** Returns the name of the type (e.g. Integer). */
+    public String toString() {
+        return name;
+    }
+}
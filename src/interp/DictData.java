@@ -1,60 +1,144 @@
 package interp;
 import parser.*;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.Map;
-import java.util.HashMap;
+
+/**
+ * Dictionary from strings to data. The keys are kept in a shape shared
+ * with the dictionaries that have the same keys (see {@link Shape}) and
+ * the values in an array indexed by the slots of the shape. The keys
+ * are iterated in the order they were added.
+ */
 
 public class DictData extends Data {
 
-    private HashMap<StringData, Data> dict;
+    private static final Data[] NONE = new Data[0];
+
+    private Shape shape;
+
+    /** Values of the keys in the slots of the shape (it may have free slots). */
+    private Data[] values;
+
+    public DictData() {
+      shape = Shape.EMPTY;
+      values = NONE;
+    }
+
+    /** Creates a dictionary that owns the values of the slots of a shape. */
+    public DictData(Shape shape, Data[] values) {
+      assert values.length >= shape.size();
+      this.shape = shape;
+      this.values = values;
+    }
+
+    /**
+     * Returns the shape of the dictionary. The values are only accessed
+     * after it is called, so subclasses that compute them lazily (see
+     * {@link RowData}) redefine it.
+     */
+    protected Shape shape() {
+      return shape;
+    }
 
-    public DictData() { dict = new HashMap<StringData, Data>(); }
-    public DictData(HashMap<StringData, Data> b) { dict = b; }
+    /** Removes all the entries. */
+    protected void clear() {
+      shape = Shape.EMPTY;
+      values = NONE;
+    }
 
     public Data get(String key) {
       return get(new StringData(key));
     }
     public Data get(Data d) {
-      assert d.getType().equals("String");
-      StringData key = (StringData) d;
-      Data val = dict.containsKey(key) ? dict.get(key) : new VoidData();
-      return val;
+      assert d.getKind() == DataKind.STRING;
+      int slot = shape().slot((StringData) d);
+      return slot < 0 ? new VoidData() : values[slot];
     }
-    
+
+    /** Returns the value of a key written in a node of the AST (see {@link Shape#slot}). */
+    public Data get(StringData key, AslTree node) {
+      int slot = shape().slot(key, node);
+      return slot < 0 ? new VoidData() : values[slot];
+    }
+
     public void put(String key, Data data) {
       put(new StringData(key), data);
     }
     public void put(StringData key, Data data) {
-      dict.put(key, data.deepClone());
+      set(key, data.deepClone());
     }
 
-    public void DropEntry(StringData key){
-      if(dict.containsKey(key)){
-        dict.remove(key);
+    /** Stores a value, which is not copied. */
+    void set(StringData key, Data data) {
+      Shape s = shape();
+      int slot = s.slot(key);
+      if (slot < 0) {
+        slot = s.size();
+        shape = s.with(key);
+        if (slot == values.length) values = Arrays.copyOf(values, Math.max(4, 2*slot));
       }
+      values[slot] = data;
+    }
+
+    public void DropEntry(StringData key){
+      Shape s = shape();
+      int slot = s.slot(key);
+      if (slot < 0) return;
+      int n = s.size();
+      Data[] v = new Data[n - 1];
+      System.arraycopy(values, 0, v, 0, slot);
+      System.arraycopy(values, slot + 1, v, slot, n - slot - 1);
+      shape = s.without(slot);
+      values = v;
     }
 
     public void setValue(Data d){
-        if(!d.getType().equals("Dict")) throw new RuntimeException("Received " + d.getType() + ", expected DictData\n"); 
+        if(d.getKind() != DataKind.DICT) throw new RuntimeException("Received " + d.getType() + ", expected DictData\n");
         DictData d2 = (DictData) d;
-        dict = (HashMap<StringData, Data>) d2.dict.clone();
+        Shape s = d2.shape();
+        shape = s.copy();
+        values = Arrays.copyOf(d2.values, s.size());
     }
 
     public int size() {
-      return dict.size();
+      return shape().size();
     }
 
     public boolean empty() {
-      return dict.size() == 0;
+      return size() == 0;
+    }
+
+    /** Returns the key of the i-th entry (in the order they were added). */
+    public StringData keyAt(int i) {
+      return shape().key(i);
+    }
+
+    /** Returns the value of the i-th entry (in the order they were added). */
+    public Data valueAt(int i) {
+      shape();
+      return values[i];
     }
 
+    /** Returns a copy of the entries in the order they were added. */
     public Set<Map.Entry<StringData,Data>> entrySet() {
-      return dict.entrySet();
+      int n = size();
+      LinkedHashSet<Map.Entry<StringData,Data>> res = new LinkedHashSet<Map.Entry<StringData,Data>>();
+      for (int i = 0; i < n; i++) {
+        res.add(new AbstractMap.SimpleImmutableEntry<StringData,Data>(keyAt(i), values[i]));
+      }
+      return res;
     }
 
     @Override
     public int hashCode() {
-      return dict.hashCode();
+      // Independent of the order of the keys, as in java.util.Map
+      int res = 0;
+      int n = size();
+      for (int i = 0; i < n; i++) res += keyAt(i).hashCode() ^ values[i].hashCode();
+      return res;
     }
 
     @Override
@@ -64,20 +148,34 @@ public class DictData extends Data {
         return false;
       }
       DictData dd = (DictData) o;
-      return dict.equals(dd.dict);
+      int n = size();
+      if (n != dd.size()) return false;
+      Shape s = dd.shape();
+      for (int i = 0; i < n; i++) {
+        int slot = s.slot(keyAt(i));
+        if (slot < 0 || !values[i].equals(dd.values[slot])) return false;
+      }
+      return true;
     }
 
-    public String getType() { return "Dict"; }
+    public DataKind getKind() { return DataKind.DICT; }
 
     public String toString() {
-      return dict.toString();
+      StringBuilder sb = new StringBuilder("{");
+      int n = size();
+      for (int i = 0; i < n; i++) {
+        if (i > 0) sb.append(", ");
+        sb.append(keyAt(i)).append('=').append(values[i]);
+      }
+      return sb.append('}').toString();
     }
 
     public Data deepClone() {
-      DictData res = new DictData();
-      for (Map.Entry<StringData, Data> entry : dict.entrySet()) {
-        res.dict.put(entry.getKey(), entry.getValue().deepClone());
-      }
+      Shape s = shape();
+      int n = s.size();
+      Data[] v = new Data[n];
+      for (int i = 0; i < n; i++) v[i] = values[i].deepClone();
+      DictData res = new DictData(s.copy(), v);
       assert equals(res);
       return res;
     }
@@ -95,7 +193,7 @@ public class DictData extends Data {
     * @return A Boolean data with the value of the expression.
     */
     public BooleanData evaluateRelational (int op, Data data) {
-      if ("Dict" != data.getType())
+      if (data.getKind() != DataKind.DICT)
         return new BooleanData(false);
 
       DictData d = (DictData) data;
@@ -110,14 +208,15 @@ public class DictData extends Data {
     }
 
     //Concatena dos diccionarios
-    public DictData evaluateArithmetic (int op, Data data) {    
-      assert "Dict".equals(data.getType());
+    public DictData evaluateArithmetic (int op, Data data) {
+      assert data.getKind() == DataKind.DICT;
       DictData dict2 = (DictData) data;
       switch (op) {
           case AslLexer.PLUS:
-            HashMap<StringData,Data> dict = ((DictData)deepClone()).dict;
-            dict.putAll(dict2.dict);
-            return new DictData(dict);
+            DictData dict = (DictData) deepClone();
+            int n = dict2.size();
+            for (int i = 0; i < n; i++) dict.set(dict2.keyAt(i), dict2.valueAt(i));
+            return dict;
           default: assert false;
       }
 
@@ -0,0 +1,532 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Compiler of the conditions of the from blocks (select, filter and the
+ * when of update) to trees of Java closures that read the cells of the
+ * columns as primitive values, so the JIT compiles each condition to
+ * straight code without the dispatch and the boxing of the interpreter.
+ *
+ * The conditions are typed first: the operands must be columns with a
+ * constant name, literals or variables, combined with arithmetic,
+ * relational and Boolean operators. The typed tree is stored in each
+ * condition and reused while the types of its columns and variables do
+ * not change. The closures read the columns of a table and the values
+ * of the variables, so they are built from the typed tree for each
+ * evaluation of the from block. Rows that the compiled code cannot evaluate (Void cells,
+ * integer overflow, division by zero) are evaluated by the interpreter,
+ * which produces the same result or error as without compilation. The
+ * conditions that cannot be typed are always evaluated by the
+ * interpreter.
+ */
+
+public class ExprCompiler {
+
+    /** Raised by the compiled code for the rows that must be interpreted. */
+    private static final class Fallback extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Fallback() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Fallback FALLBACK = new Fallback();
+
+    private interface LongFn { long eval(int row); }
+    private interface DoubleFn { double eval(int row); }
+    private interface ObjFn { Object eval(int row); }
+
+    private static final int LONG = 0, DOUBLE = 1, BOOL = 2, STRING = 3;
+
+    /**
+     * Typed tree of a condition (null if it cannot be typed) and the types
+     * of its leaves when it was typed. It is stored in the node of the
+     * condition (see {@link AslTree#getTyped}) and it is immutable, so
+     * the interpreters that share the AST can replace it without
+     * synchronization.
+     */
+    static final class Typed {
+        final Node tree;
+        final String signature;
+
+        Typed(Node tree, String signature) {
+            this.tree = tree;
+            this.signature = signature;
+        }
+    }
+
+    /** Values of the leaves of a condition for a table. */
+    private static class Env {
+        final Interp interp;
+        final TableData table;
+        final IdentityHashMap<AslTree,Integer> positions;
+
+        Env(Interp interp, TableData table, IdentityHashMap<AslTree,Integer> positions) {
+            this.interp = interp;
+            this.table = table;
+            this.positions = positions;
+        }
+
+        /** Returns the value of a leaf (a Column or a Data), or null if unknown. */
+        Object leaf(AslTree t) {
+            if (t.getType() == AslLexer.COLUMN) {
+                Integer pos = positions.get(t);
+                return pos == null ? null : table.getColumn(pos);
+            }
+            try {
+                return interp.getVariable(t.getText());
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        /** Returns the type of a leaf, or -1 if it cannot be compiled. */
+        int type(AslTree t) {
+            if (t.getType() == AslLexer.COLUMN) {
+                Integer pos = positions.get(t);
+                if (pos == null) return -1;
+                switch (table.getTypes().get(pos)) {
+                    case "Integer": return LONG;
+                    case "Float": return DOUBLE;
+                    case "Boolean": return BOOL;
+                    case "String": return STRING;
+                    default: return -1;
+                }
+            }
+            Object v = leaf(t);
+            if (v == null) return -1;
+            switch (((Data) v).getKind()) {
+                case INTEGER: return LONG;
+                case FLOAT: return DOUBLE;
+                case BOOLEAN: return BOOL;
+                case STRING: return STRING;
+                default: return -1;
+            }
+        }
+    }
+
+    private ExprCompiler() {}
+
+    /**
+     * Returns a predicate that checks whether the rows of the table satisfy
+     * the condition (or do not, if negated).
+     * @param positions Positions of the columns referenced by the condition.
+     */
+    public static RowPredicate compile(Interp interp, TableData table, IdentityHashMap<AslTree,Integer> positions,
+                                       AslTree cond, boolean negated) {
+        Env env = new Env(interp, table, positions);
+        RowPredicate compiled = null;
+        Node tree = typed(env, cond);
+        if (tree != null && tree.type == BOOL) compiled = tree.bool(env);
+        if (Metrics.enabled) Metrics.count(compiled == null ? "from.interpreted" : "from.compiled", 1);
+        if (compiled == null) {
+            return row -> interp.evaluateContextBoolean(table, row, cond) != negated;
+        }
+        final RowPredicate code = compiled;
+        return row -> {
+            try {
+                return code.test(row) != negated;
+            } catch (Fallback f) {
+                return interp.evaluateContextBoolean(table, row, cond) != negated;
+            }
+        };
+    }
+
+    /** Returns the typed tree of a condition for the leaves of the environment. */
+    private static Node typed(Env env, AslTree cond) {
+        ArrayList<AslTree> leaves = new ArrayList<AslTree>();
+        if (!leaves(cond, leaves)) return null;
+        StringBuilder sb = new StringBuilder();
+        for (AslTree leaf : leaves) sb.append(env.type(leaf)).append(',');
+        String signature = sb.toString();
+        Typed c = cond.getTyped();
+        if (c != null && c.signature.equals(signature)) return c.tree;
+        Node tree = type(env, cond);
+        cond.setTyped(new Typed(tree, signature));
+        return tree;
+    }
+
+    /**
+     * Collects the columns and variables of an expression.
+     * @return false if the expression has nodes that cannot be compiled.
+     */
+    private static boolean leaves(AslTree t, ArrayList<AslTree> res) {
+        switch (t.getType()) {
+            case AslLexer.COLUMN:
+            case AslLexer.ID:
+                res.add(t);
+                return true;
+            case AslLexer.INT:
+            case AslLexer.FLOAT:
+            case AslLexer.STRING:
+            case AslLexer.BOOLEAN:
+                return true;
+            case AslLexer.PLUS: case AslLexer.MINUS: case AslLexer.MUL:
+            case AslLexer.DIV: case AslLexer.MOD: case AslLexer.NOT:
+            case AslLexer.AND: case AslLexer.OR:
+            case AslLexer.EQUAL: case AslLexer.NOT_EQUAL:
+            case AslLexer.LT: case AslLexer.LE: case AslLexer.GT: case AslLexer.GE:
+                for (int i = 0; i < t.getChildCount(); ++i) {
+                    if (!leaves(t.getChild(i), res)) return false;
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Returns the typed tree of an expression, or null if it cannot be compiled. */
+    private static Node type(Env env, AslTree t) {
+        switch (t.getType()) {
+            case AslLexer.COLUMN:
+            case AslLexer.ID: {
+                int type = env.type(t);
+                return type < 0 ? null : new Leaf(type, t);
+            }
+            case AslLexer.INT: return new Const(LONG, t.getIntValue(), 0, null);
+            case AslLexer.FLOAT: return new Const(DOUBLE, 0, t.getFloatValue(), null);
+            case AslLexer.STRING: return new Const(STRING, 0, 0, t.getStringValue());
+            case AslLexer.BOOLEAN: return new Const(BOOL, 0, 0, t.getBooleanValue());
+            default: break;
+        }
+        Node a = type(env, t.getChild(0));
+        if (a == null) return null;
+        int op = t.getType();
+        if (t.getChildCount() == 1) {
+            if (op == AslLexer.NOT) return a.type == BOOL ? new Unary(BOOL, op, a) : null;
+            return numeric(a.type) ? new Unary(a.type, op, a) : null;
+        }
+        Node b = type(env, t.getChild(1));
+        if (b == null) return null;
+        switch (op) {
+            case AslLexer.AND:
+            case AslLexer.OR:
+                return a.type == BOOL && b.type == BOOL ? new Binary(BOOL, op, a, b) : null;
+            case AslLexer.EQUAL:
+            case AslLexer.NOT_EQUAL:
+                if (numeric(a.type) && numeric(b.type)) return new Binary(BOOL, op, a, b);
+                return a.type == b.type ? new Binary(BOOL, op, a, b) : null;
+            case AslLexer.LT: case AslLexer.LE: case AslLexer.GT: case AslLexer.GE:
+                return numeric(a.type) && numeric(b.type) ? new Binary(BOOL, op, a, b) : null;
+            default:
+                // Arithmetic operators
+                if (!numeric(a.type) || !numeric(b.type)) return null;
+                return new Binary(a.type == LONG && b.type == LONG ? LONG : DOUBLE, op, a, b);
+        }
+    }
+
+    private static boolean numeric(int type) {
+        return type == LONG || type == DOUBLE;
+    }
+
+    /** Node of a typed tree, which produces the closures for a table. */
+    private abstract static class Node {
+        final int type;
+
+        Node(int type) {
+            this.type = type;
+        }
+
+        LongFn lng(Env env) { throw new IllegalStateException(); }
+
+        DoubleFn dbl(Env env) {
+            LongFn f = lng(env);
+            return f == null ? null : row -> (double) f.eval(row);
+        }
+
+        RowPredicate bool(Env env) { throw new IllegalStateException(); }
+
+        /** Closure of the values compared with equality (String or Boolean). */
+        ObjFn obj(Env env) {
+            if (type == STRING) throw new IllegalStateException();
+            RowPredicate f = bool(env);
+            return f == null ? null : row -> f.test(row);
+        }
+    }
+
+    private static class Const extends Node {
+        final long l;
+        final double d;
+        final Object o;
+
+        Const(int type, long l, double d, Object o) {
+            super(type);
+            this.l = l;
+            this.d = d;
+            this.o = o;
+        }
+
+        LongFn lng(Env env) { return row -> l; }
+        DoubleFn dbl(Env env) { return type == LONG ? row -> l : row -> d; }
+        RowPredicate bool(Env env) {
+            boolean b = (Boolean) o;
+            return row -> b;
+        }
+        ObjFn obj(Env env) { return row -> o; }
+    }
+
+    /** Column or variable. The closures are null if the type has changed. */
+    private static class Leaf extends Node {
+        final AslTree t;
+
+        Leaf(int type, AslTree t) {
+            super(type);
+            this.t = t;
+        }
+
+        LongFn lng(Env env) {
+            Object v = env.leaf(t);
+            if (v instanceof IntegerData) {
+                long l = ((IntegerData) v).getValue();
+                return row -> l;
+            }
+            if (v instanceof IntegerColumn) {
+                IntegerColumn c = (IntegerColumn) v;
+                return row -> {
+                    if (c.isVoid(row)) throw FALLBACK;
+                    return c.getLong(row);
+                };
+            }
+            if (v instanceof ColumnView && ((ColumnView) v).base() instanceof IntegerColumn) {
+                IntegerColumn c = (IntegerColumn) ((ColumnView) v).base();
+                int[] rows = ((ColumnView) v).rows();
+                return row -> {
+                    int r = rows[row];
+                    if (c.isVoid(r)) throw FALLBACK;
+                    return c.getLong(r);
+                };
+            }
+            if (!(v instanceof Column)) return null;
+            Column c = (Column) v;
+            return row -> {
+                Data d = c.get(row);
+                if (!(d instanceof IntegerData)) throw FALLBACK;
+                return ((IntegerData) d).getValue();
+            };
+        }
+
+        DoubleFn dbl(Env env) {
+            if (type == LONG) return super.dbl(env);
+            Object v = env.leaf(t);
+            if (v instanceof FloatData) {
+                double d = ((FloatData) v).getValue();
+                return row -> d;
+            }
+            if (v instanceof FloatColumn) {
+                FloatColumn c = (FloatColumn) v;
+                return row -> {
+                    if (c.isVoid(row)) throw FALLBACK;
+                    return c.getDouble(row);
+                };
+            }
+            if (v instanceof ColumnView && ((ColumnView) v).base() instanceof FloatColumn) {
+                FloatColumn c = (FloatColumn) ((ColumnView) v).base();
+                int[] rows = ((ColumnView) v).rows();
+                return row -> {
+                    int r = rows[row];
+                    if (c.isVoid(r)) throw FALLBACK;
+                    return c.getDouble(r);
+                };
+            }
+            if (!(v instanceof Column)) return null;
+            Column c = (Column) v;
+            return row -> {
+                Data d = c.get(row);
+                if (!Data.isNumeric(d)) throw FALLBACK;
+                return FloatData.toDouble(d);
+            };
+        }
+
+        RowPredicate bool(Env env) {
+            Object v = env.leaf(t);
+            if (v instanceof BooleanData) {
+                boolean b = ((BooleanData) v).getValue();
+                return row -> b;
+            }
+            if (!(v instanceof Column)) return null;
+            Column c = (Column) v;
+            return row -> {
+                Data d = c.get(row);
+                if (!(d instanceof BooleanData)) throw FALLBACK;
+                return ((BooleanData) d).getValue();
+            };
+        }
+
+        ObjFn obj(Env env) {
+            if (type == BOOL) return super.obj(env);
+            Object v = env.leaf(t);
+            if (v instanceof StringData) {
+                String s = ((StringData) v).getValue();
+                return row -> s;
+            }
+            if (!(v instanceof Column)) return null;
+            Column c = (Column) v;
+            return row -> {
+                Data d = c.get(row);
+                if (!(d instanceof StringData)) throw FALLBACK;
+                return ((StringData) d).getValue();
+            };
+        }
+    }
+
+    private static class Unary extends Node {
+        final int op;
+        final Node a;
+
+        Unary(int type, int op, Node a) {
+            super(type);
+            this.op = op;
+            this.a = a;
+        }
+
+        LongFn lng(Env env) {
+            LongFn f = a.lng(env);
+            if (f == null || op == AslLexer.PLUS) return f;
+            return row -> {
+                long v = f.eval(row);
+                if (v == Long.MIN_VALUE) throw FALLBACK;
+                return -v;
+            };
+        }
+
+        DoubleFn dbl(Env env) {
+            if (type == LONG) return super.dbl(env);
+            DoubleFn f = a.dbl(env);
+            if (f == null || op == AslLexer.PLUS) return f;
+            return row -> -f.eval(row);
+        }
+
+        RowPredicate bool(Env env) {
+            RowPredicate f = a.bool(env);
+            return f == null ? null : row -> !f.test(row);
+        }
+    }
+
+    private static class Binary extends Node {
+        final int op;
+        final Node a;
+        final Node b;
+
+        Binary(int type, int op, Node a, Node b) {
+            super(type);
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        LongFn lng(Env env) {
+            LongFn f = a.lng(env);
+            LongFn g = b.lng(env);
+            if (f == null || g == null) return null;
+            switch (op) {
+                case AslLexer.PLUS:
+                    return row -> {
+                        try {
+                            return Math.addExact(f.eval(row), g.eval(row));
+                        } catch (ArithmeticException e) {
+                            throw FALLBACK;
+                        }
+                    };
+                case AslLexer.MINUS:
+                    return row -> {
+                        try {
+                            return Math.subtractExact(f.eval(row), g.eval(row));
+                        } catch (ArithmeticException e) {
+                            throw FALLBACK;
+                        }
+                    };
+                case AslLexer.MUL:
+                    return row -> {
+                        try {
+                            return Math.multiplyExact(f.eval(row), g.eval(row));
+                        } catch (ArithmeticException e) {
+                            throw FALLBACK;
+                        }
+                    };
+                case AslLexer.DIV:
+                    return row -> {
+                        long x = f.eval(row), y = g.eval(row);
+                        if (y == 0 || (x == Long.MIN_VALUE && y == -1)) throw FALLBACK;
+                        return x / y;
+                    };
+                default:
+                    return row -> {
+                        long x = f.eval(row), y = g.eval(row);
+                        if (y == 0) throw FALLBACK;
+                        return x % y;
+                    };
+            }
+        }
+
+        DoubleFn dbl(Env env) {
+            if (type == LONG) return super.dbl(env);
+            DoubleFn f = a.dbl(env);
+            DoubleFn g = b.dbl(env);
+            if (f == null || g == null) return null;
+            switch (op) {
+                case AslLexer.PLUS: return row -> f.eval(row) + g.eval(row);
+                case AslLexer.MINUS: return row -> f.eval(row) - g.eval(row);
+                case AslLexer.MUL: return row -> f.eval(row) * g.eval(row);
+                case AslLexer.DIV:
+                    return row -> {
+                        double x = f.eval(row), y = g.eval(row);
+                        if (y == 0) throw FALLBACK;
+                        return x / y;
+                    };
+                default:
+                    return row -> {
+                        double x = f.eval(row), y = g.eval(row);
+                        if (y == 0) throw FALLBACK;
+                        return x % y;
+                    };
+            }
+        }
+
+        RowPredicate bool(Env env) {
+            switch (op) {
+                case AslLexer.AND: {
+                    RowPredicate f = a.bool(env), g = b.bool(env);
+                    return f == null || g == null ? null : row -> f.test(row) && g.test(row);
+                }
+                case AslLexer.OR: {
+                    RowPredicate f = a.bool(env), g = b.bool(env);
+                    return f == null || g == null ? null : row -> f.test(row) || g.test(row);
+                }
+                default: break;
+            }
+            if (a.type == LONG && b.type == LONG) {
+                LongFn f = a.lng(env), g = b.lng(env);
+                if (f == null || g == null) return null;
+                switch (op) {
+                    case AslLexer.EQUAL: return row -> f.eval(row) == g.eval(row);
+                    case AslLexer.NOT_EQUAL: return row -> f.eval(row) != g.eval(row);
+                    case AslLexer.LT: return row -> f.eval(row) < g.eval(row);
+                    case AslLexer.LE: return row -> f.eval(row) <= g.eval(row);
+                    case AslLexer.GT: return row -> f.eval(row) > g.eval(row);
+                    default: return row -> f.eval(row) >= g.eval(row);
+                }
+            }
+            if (numeric(a.type)) {
+                DoubleFn f = a.dbl(env), g = b.dbl(env);
+                if (f == null || g == null) return null;
+                switch (op) {
+                    case AslLexer.EQUAL: return row -> f.eval(row) == g.eval(row);
+                    case AslLexer.NOT_EQUAL: return row -> f.eval(row) != g.eval(row);
+                    case AslLexer.LT: return row -> f.eval(row) < g.eval(row);
+                    case AslLexer.LE: return row -> f.eval(row) <= g.eval(row);
+                    case AslLexer.GT: return row -> f.eval(row) > g.eval(row);
+                    default: return row -> f.eval(row) >= g.eval(row);
+                }
+            }
+            ObjFn f = a.obj(env), g = b.obj(env);
+            if (f == null || g == null) return null;
+            if (op == AslLexer.EQUAL) return row -> f.eval(row).equals(g.eval(row));
+            return row -> !f.eval(row).equals(g.eval(row));
+        }
+    }
+}
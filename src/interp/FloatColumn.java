@@ -0,0 +1,77 @@
+package interp;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column of Float values stored in a primitive double array.
+ * A bit set keeps track of the cells that hold a value.
+ */
+
+public class FloatColumn extends Column {
+
+    private double[] values;
+    private BitSet present;
+
+    public FloatColumn() {
+      values = new double[0];
+      present = new BitSet();
+    }
+
+    private FloatColumn(double[] v, BitSet p, int n) {
+      values = v;
+      present = p;
+      size = n;
+    }
+
+    public double getDouble(int row) {
+      return values[row];
+    }
+
+    public Data get(int row) {
+      if (!present.get(row)) return new VoidData();
+      return new FloatData(values[row]);
+    }
+
+    public boolean isVoid(int row) {
+      return !present.get(row);
+    }
+
+    public void set(int row, Data d) {
+      setDouble(row, FloatData.toDouble(d));
+    }
+
+    public void setDouble(int row, double v) {
+      values[row] = v;
+      present.set(row);
+    }
+
+    public void clear(int row) {
+      present.clear(row);
+    }
+
+    public void resize(int n) {
+      if (n > values.length) values = Arrays.copyOf(values, grow(values.length, n));
+      if (n < size) present.clear(n, size);
+      size = n;
+    }
+
+    public void remove(int row) {
+      System.arraycopy(values, row+1, values, row, size-row-1);
+      for (int i=row; i<size-1; i++) present.set(i, present.get(i+1));
+      present.clear(--size);
+    }
+
+    public Column copy() {
+      return new FloatColumn(Arrays.copyOf(values, size), (BitSet) present.clone(), size);
+    }
+
+    public Column select(int[] rows) {
+      double[] v = new double[rows.length];
+      BitSet p = new BitSet(rows.length);
+      for (int i=0; i<rows.length; i++) {
+        v[i] = values[rows[i]];
+        if (present.get(rows[i])) p.set(i);
+      }
+      return new FloatColumn(v, p, rows.length);
+    }
+}
@@ -0,0 +1,115 @@
+package interp;
+import parser.*;
+
+public class FloatData extends Data {
+
+  private double value;
+
+  public FloatData() { value = 0.0; }
+  public FloatData(double b) { value = b; }
+
+  public double getValue() { return value; }
+
+  public void setValue(double b) { value = b; }
+
+  public void setValue(Data d) {
+    value = toDouble(d);
+  }
+
+  public DataKind getKind() { return DataKind.FLOAT; }
+
+  public String toString() {
+    return Double.toString(value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Double.hashCode(value);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof FloatData)) {
+      return false;
+    }
+    FloatData fd = (FloatData) o;
+    return value == fd.value;
+  }
+
+  public Data deepClone() {
+    return new FloatData(value);
+  }
+
+  public static FloatData cast(Data data) {
+    if (!(data instanceof FloatData))
+      throw new RuntimeException("Received " + data.getType() + ", expected FloatData\n");
+    else
+      return (FloatData) data;
+  }
+
+  /**
+  * Numeric value of an Integer or Float data as a double. It raises
+  * an exception for any other type.
+  */
+  public static double toDouble(Data data) {
+    if (data instanceof FloatData) return ((FloatData) data).value;
+    if (data instanceof IntegerData) return ((IntegerData) data).getValue();
+    throw new RuntimeException("Received " + data.getType() + ", expected FloatData\n");
+  }
+
+  /**
+  * Evaluation of expressions with relational operators. Integer
+  * operands are promoted to Float before the comparison.
+  * @param op Type of operator (token).
+  * @return A Boolean data with the value of the expression.
+  */
+  public BooleanData evaluateRelational(int op, Data data) {
+    if (!Data.isNumeric(data))
+      return new BooleanData(false);
+
+    double d = toDouble(data);
+    switch (op) {
+        case AslLexer.EQUAL:
+          return new BooleanData(value == d);
+        case AslLexer.NOT_EQUAL:
+          return new BooleanData(value != d);
+        case AslLexer.LT:
+          return new BooleanData(value < d);
+        case AslLexer.LE:
+          return new BooleanData(value <= d);
+        case AslLexer.GT:
+          return new BooleanData(value > d);
+        case AslLexer.GE:
+          return new BooleanData(value >= d);
+        default: assert false;
+    }
+    return null;
+  }
+
+  /**
+  * Evaluation of arithmetic expressions. Integer operands are
+  * promoted to Float and the result is always a new Float data.
+  * @param op Type of operator (token).
+  * @return A Float data with the value of the expression.
+  */
+  public FloatData evaluateArithmetic(int op, Data data) {
+    double d = toDouble(data);
+    switch (op) {
+        case AslLexer.PLUS:
+          return new FloatData(value + d);
+        case AslLexer.MINUS:
+          return new FloatData(value - d);
+        case AslLexer.MUL:
+          return new FloatData(value * d);
+        case AslLexer.DIV:
+          if (d == 0) throw new RuntimeException ("Division by zero");
+          return new FloatData(value / d);
+        case AslLexer.MOD:
+          if (d == 0) throw new RuntimeException ("Division by zero");
+          return new FloatData(value % d);
+        default: assert false;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,285 @@
+package interp;
+
+import parser.*;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+/**
+ * Plan of the evaluation of the actions of a from block. The consecutive
+ * select and filter actions commute, so each run of them is evaluated
+ * as a single step that checks a list of predicates: the conjuncts of
+ * the select conditions (a and b and ...) and the negated conditions of
+ * the filter actions.
+ *
+ * The predicates that cannot fail (comparisons of a column with a
+ * literal of its type) are sorted by the fraction of rows they reject,
+ * measured on a sample of the rows, so the selective ones are checked
+ * first (they all cost about the same, a single comparison). The other predicates keep their positions, so the conjuncts
+ * that guard them (e.g. :"x" != 0 and 100 / :"x" > 5) are still
+ * checked before them. Only the run of the first actions is reordered:
+ * the following ones see the tables produced by the updates.
+ *
+ * The plan is built once for each block and table layout and stored in
+ * the AST of the actions (see {@link AslTree#getPlan}).
+ */
+
+public class FromPlan {
+
+    /** Minimum number of rows of the tables whose plans are optimized. */
+    private static final int MIN_ROWS = 1000;
+
+    /** Number of rows evaluated to estimate the selectivity. */
+    private static final int SAMPLE = 64;
+
+    /** Condition that the rows must satisfy (or not, if negated). */
+    public static class Predicate {
+        final AslTree cond;
+        final boolean negated;
+        /** Estimated fraction of rows that satisfy the predicate (-1 if unknown). */
+        double selectivity = -1;
+
+        Predicate(AslTree cond, boolean negated) {
+            this.cond = cond;
+            this.negated = negated;
+        }
+
+    }
+
+    /** Step of the plan: an update action or the check of some predicates. */
+    public static class Step {
+        final AslTree update;
+        final ArrayList<Predicate> predicates;
+        final String name;
+
+        Step(AslTree update, ArrayList<Predicate> predicates, String name) {
+            this.update = update;
+            this.predicates = predicates;
+            this.name = name;
+        }
+
+        public boolean isUpdate() {
+            return update != null;
+        }
+
+        /**
+         * Returns the check of all the predicates, in order, on the rows
+         * of the table (compiled if possible, see {@link ExprCompiler}).
+         * @param positions Positions of the columns referenced by the predicates.
+         */
+        public RowPredicate predicate(Interp interp, TableData table, IdentityHashMap<AslTree,Integer> positions) {
+            RowPredicate[] tests = new RowPredicate[predicates.size()];
+            for (int k = 0; k < tests.length; ++k) {
+                Predicate p = predicates.get(k);
+                tests[k] = ExprCompiler.compile(interp, table, positions, p.cond, p.negated);
+            }
+            if (tests.length == 1) return tests[0];
+            return row -> {
+                for (RowPredicate test : tests) {
+                    if (!test.test(row)) return false;
+                }
+                return true;
+            };
+        }
+    }
+
+    private final ArrayList<Step> steps;
+
+    /** Layout of the tables and options for which the plan was built. */
+    private final int first;
+    private final boolean optimized;
+    private final ListData<StringData> labels;
+    private final ArrayList<String> types;
+
+    private FromPlan(ArrayList<Step> steps, int first, boolean optimized, TableData table) {
+        this.steps = steps;
+        this.first = first;
+        this.optimized = optimized;
+        labels = new ListData<StringData>(table.getColumnNames().toArrayList());
+        types = new ArrayList<String>(table.getTypes());
+    }
+
+    public ArrayList<Step> steps() {
+        return steps;
+    }
+
+    /** Checks whether the plan was built for the actions and tables with these columns. */
+    private boolean fits(TableData table, int first, boolean optimized) {
+        return this.first == first && this.optimized == optimized
+            && labels.equals(table.getColumnNames()) && types.equals(table.getTypes());
+    }
+
+    /**
+     * Returns the plan of the actions of a block from the given one. The
+     * plan built for a previous evaluation of the block is reused if the
+     * table has the same columns.
+     * @param optimize Whether the predicates may be reordered.
+     */
+    public static FromPlan build(Interp interp, TableData table, AslTree actions, int first, boolean optimize) {
+        optimize = optimize && table.height() >= MIN_ROWS;
+        FromPlan cached = actions.getPlan();
+        if (cached != null && cached.fits(table, first, optimize)) return cached;
+
+        ArrayList<Step> steps = new ArrayList<Step>();
+        int n = actions.getChildCount();
+        int i = first;
+        while (i < n) {
+            AslTree action = actions.getChild(i);
+            if (action.getType() == AslLexer.UPDATE) {
+                steps.add(new Step(action, null, "update"));
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < n && actions.getChild(end).getType() != AslLexer.UPDATE) end++;
+            ArrayList<Predicate> run = new ArrayList<Predicate>();
+            for (int k = i; k < end; ++k) {
+                AslTree a = actions.getChild(k);
+                if (a.getType() == AslLexer.SELECT) conjuncts(a.getChild(0), run);
+                else run.add(new Predicate(a.getChild(0), true));
+            }
+            ArrayList<Predicate> sorted = optimize && i == first ? reorder(interp, table, run) : null;
+            if (sorted != null) {
+                steps.add(new Step(null, sorted, "select"));
+            } else {
+                for (int k = i; k < end; ++k) {
+                    AslTree a = actions.getChild(k);
+                    ArrayList<Predicate> p = new ArrayList<Predicate>();
+                    p.add(new Predicate(a.getChild(0), a.getType() == AslLexer.FILTER));
+                    steps.add(new Step(null, p, a.getText().toLowerCase()));
+                }
+            }
+            i = end;
+        }
+        FromPlan plan = new FromPlan(steps, first, optimize, table);
+        actions.setPlan(plan);
+        return plan;
+    }
+
+    private static void conjuncts(AslTree t, ArrayList<Predicate> res) {
+        if (t.getType() == AslLexer.AND) {
+            conjuncts(t.getChild(0), res);
+            conjuncts(t.getChild(1), res);
+        } else {
+            res.add(new Predicate(t, false));
+        }
+    }
+
+    /**
+     * Sorts each sequence of consecutive predicates that cannot fail by
+     * their selectivity. The predicates that may fail stay in their positions.
+     * @return The sorted predicates, or null if no sequence has more than one.
+     */
+    private static ArrayList<Predicate> reorder(Interp interp, TableData table, ArrayList<Predicate> run) {
+        ArrayList<Predicate> res = new ArrayList<Predicate>();
+        ArrayList<Predicate> safe = new ArrayList<Predicate>();
+        boolean sorted = false;
+        for (Predicate p : run) {
+            if (cannotFail(p.cond, table)) {
+                safe.add(p);
+                continue;
+            }
+            sorted = sort(interp, table, safe, res) || sorted;
+            res.add(p);
+        }
+        sorted = sort(interp, table, safe, res) || sorted;
+        return sorted ? res : null;
+    }
+
+    /**
+     * Estimates the selectivity of the predicates on a sample of the rows
+     * and moves them sorted to the result.
+     * @return Whether there were several predicates.
+     */
+    private static boolean sort(Interp interp, TableData table, ArrayList<Predicate> safe, ArrayList<Predicate> res) {
+        boolean several = safe.size() > 1;
+        if (several) {
+            int height = table.height();
+            for (Predicate p : safe) {
+                int passed = 0;
+                for (int k = 0; k < SAMPLE; ++k) {
+                    int row = (int) ((long) k * height / SAMPLE);
+                    if (interp.evaluateContextBoolean(table, row, p.cond) != p.negated) passed++;
+                }
+                p.selectivity = (double) passed / SAMPLE;
+            }
+            Collections.sort(safe, (a, b) -> Double.compare(a.selectivity, b.selectivity));
+        }
+        res.addAll(safe);
+        safe.clear();
+        return several;
+    }
+
+    /**
+     * Checks whether the evaluation of a predicate on any row of the table
+     * cannot raise an error: it compares a column with a literal of the
+     * type of the column (Strings and Booleans only for equality).
+     */
+    private static boolean cannotFail(AslTree t, TableData table) {
+        boolean ordered;
+        switch (t.getType()) {
+            case AslLexer.EQUAL:
+            case AslLexer.NOT_EQUAL:
+                ordered = false;
+                break;
+            case AslLexer.LT:
+            case AslLexer.LE:
+            case AslLexer.GT:
+            case AslLexer.GE:
+                ordered = true;
+                break;
+            default:
+                return false;
+        }
+        AslTree column = t.getChild(0);
+        AslTree literal = t.getChild(1);
+        if (column.getType() != AslLexer.COLUMN) {
+            column = t.getChild(1);
+            literal = t.getChild(0);
+        }
+        if (column.getType() != AslLexer.COLUMN) return false;
+        int pos = -1;
+        AslTree name = column.getChild(0);
+        if (name.getType() == AslLexer.STRING) {
+            pos = table.findColumn(new StringData(name.getStringValue()));
+        } else if (name.getType() == AslLexer.INT && name.getIntValue() < table.width()) {
+            pos = (int) name.getIntValue();
+        }
+        if (pos < 0) return false;
+        String type = table.getTypes().get(pos);
+        switch (literal.getType()) {
+            case AslLexer.INT: return type.equals("Integer");
+            case AslLexer.FLOAT: return type.equals("Float");
+            case AslLexer.STRING: return !ordered && type.equals("String");
+            case AslLexer.BOOLEAN: return !ordered && type.equals("Boolean");
+            default: return false;
+        }
+    }
+
+    /** Writes the plan. */
+    public void explain(PrintStream out, String file, int line, TableData table, ScanFilter filter) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("from block (").append(file).append(", line ").append(line).append("), ")
+          .append(table.height()).append(" rows").append(System.lineSeparator());
+        if (filter != null) {
+            sb.append("  read_file where ").append(filter).append(System.lineSeparator());
+        }
+        for (Step s : steps) {
+            if (s.isUpdate()) {
+                sb.append("  update ").append(s.update.toStringTree()).append(System.lineSeparator());
+                continue;
+            }
+            sb.append("  ").append(s.name).append(System.lineSeparator());
+            for (Predicate p : s.predicates) {
+                sb.append("    ").append(p.negated ? "not " : "").append(p.cond.toStringTree());
+                if (p.selectivity >= 0) {
+                    sb.append(String.format("  (selectivity %.2f)", p.selectivity));
+                }
+                sb.append(System.lineSeparator());
+            }
+        }
+        out.print(sb);
+    }
+}
@@ -8,18 +8,22 @@ public class FuncFactory {
   HashSet<String> fnames;
   HashMap<String, SpecialFunc> functions;
 
-  public static FuncFactory factory;
+  /**
+   * The only instance of the factory. It is shared by all the
+   * interpreters, so the special functions must not keep any state.
+   */
+  private static final FuncFactory factory = new FuncFactory();
 
   public static FuncFactory getinstance() {
-    if (factory == null) return new FuncFactory();
-    else return factory;
+    return factory;
   }
 
   private FuncFactory() {
     fnames = new HashSet<String>(Arrays.asList(new String[] {
       "read_file", "write_file", "create_table", "column_names",
-      "add_row", "add_row!", "sample", "add_column", "add_column!",
+      "add_row", "add_row!", "add_rows!", "sample", "add_column", "add_column!",
       "sort", "merge", "num_rows", "num_columns", "length","source", "drop",
+      "sum", "stats", "show",
       }));
     functions = new HashMap<String, SpecialFunc>();
     functions.put("read_file", new SpecialFunc.ReadFile());
@@ -28,6 +32,7 @@ public class FuncFactory {
     functions.put("column_names", new SpecialFunc.GetColumnNames());
     functions.put("add_row!", new SpecialFunc.AddNewRow());
     functions.put("add_row", new SpecialFunc.AddNewRowCopy());
+    functions.put("add_rows!", new SpecialFunc.AddNewRows());
     functions.put("sample", new SpecialFunc.Sample());
     functions.put("add_column!", new SpecialFunc.AddNewColumn());
     functions.put("add_column", new SpecialFunc.AddNewColumnCopy());
@@ -38,6 +43,9 @@ public class FuncFactory {
     functions.put("length", new SpecialFunc.GetListLength());
     functions.put("source", new SpecialFunc.ExecuteScript());
     functions.put("drop", new SpecialFunc.Drop());
+    functions.put("sum", new SpecialFunc.Sum());
+    functions.put("stats", new SpecialFunc.Stats());
+    functions.put("show", new SpecialFunc.Show());
     
     
     
@@ -0,0 +1,87 @@
+package interp;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column of Integer values stored in a primitive long array.
+ * A bit set keeps track of the cells that hold a value.
+ */
+
+public class IntegerColumn extends Column {
+
+    private long[] values;
+    private BitSet present;
+
+    public IntegerColumn() {
+      values = new long[0];
+      present = new BitSet();
+    }
+
+    private IntegerColumn(long[] v, BitSet p, int n) {
+      values = v;
+      present = p;
+      size = n;
+    }
+
+    public long getLong(int row) {
+      return values[row];
+    }
+
+    public Data get(int row) {
+      if (!present.get(row)) return new VoidData();
+      return IntegerData.valueOf(values[row]);
+    }
+
+    public boolean isVoid(int row) {
+      return !present.get(row);
+    }
+
+    public void set(int row, Data d) {
+      setLong(row, IntegerData.cast(d).getValue());
+    }
+
+    public void setLong(int row, long v) {
+      values[row] = v;
+      present.set(row);
+    }
+
+    public void clear(int row) {
+      present.clear(row);
+    }
+
+    public void resize(int n) {
+      if (n > values.length) values = Arrays.copyOf(values, grow(values.length, n));
+      if (n < size) present.clear(n, size);
+      size = n;
+    }
+
+    public void remove(int row) {
+      System.arraycopy(values, row+1, values, row, size-row-1);
+      for (int i=row; i<size-1; i++) present.set(i, present.get(i+1));
+      present.clear(--size);
+    }
+
+    public Column copy() {
+      return new IntegerColumn(Arrays.copyOf(values, size), (BitSet) present.clone(), size);
+    }
+
+    public Column select(int[] rows) {
+      long[] v = new long[rows.length];
+      BitSet p = new BitSet(rows.length);
+      for (int i=0; i<rows.length; i++) {
+        v[i] = values[rows[i]];
+        if (present.get(rows[i])) p.set(i);
+      }
+      return new IntegerColumn(v, p, rows.length);
+    }
+
+    /** Converts the column into a Float column. */
+    public FloatColumn toFloatColumn() {
+      FloatColumn res = new FloatColumn();
+      res.resize(size);
+      for (int i = present.nextSetBit(0); i >= 0 && i < size; i = present.nextSetBit(i+1)) {
+        res.setDouble(i, values[i]);
+      }
+      return res;
+    }
+}
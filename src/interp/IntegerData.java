@@ -1,31 +1,59 @@
 package interp;
 import parser.*;
 
+/**
+ * Integer values with 64 bits. Integer data are immutable, so the
+ * values of small integers are shared (see valueOf) and the arithmetic
+ * operations always return a different data. Overflows are reported
+ * as runtime errors instead of wrapping around.
+ */
+
 public class IntegerData extends Data {
 
-  private int value;
+  private static final int CACHE_LOW = -128;
+  private static final int CACHE_HIGH = 1024;
+  private static final IntegerData[] cache = new IntegerData[CACHE_HIGH - CACHE_LOW + 1];
+
+  static {
+    for (int i = 0; i < cache.length; i++) cache[i] = new IntegerData(i + CACHE_LOW);
+  }
+
+  private final long value;
 
   public IntegerData() { value = 0; }
-  public IntegerData(int b) { value = b; }
+  public IntegerData(long b) { value = b; }
 
-  public int getValue() { return value; }
+  /** Returns an Integer data with the value, shared if it is small. */
+  public static IntegerData valueOf(long b) {
+    if (b >= CACHE_LOW && b <= CACHE_HIGH) return cache[(int) b - CACHE_LOW];
+    return new IntegerData(b);
+  }
 
-  public void setValue(int b) { value = b; }
+  public long getValue() { return value; }
+
+  /**
+  * Returns the value as an int (e.g. to be used as an index). It raises
+  * an exception if the value does not fit.
+  */
+  public int toInt() {
+    if (value != (int) value)
+      throw new RuntimeException("Integer " + value + " out of range");
+    return (int) value;
+  }
 
   public void setValue(Data d) {
-    IntegerData aux = cast(d);
-    value = (int) aux.value;
+    throw new RuntimeException("Integer values cannot be modified");
   }
 
-  public String getType() { return "Integer"; }
+  public DataKind getKind() { return DataKind.INTEGER; }
 
   public String toString() {
-    return Integer.toString(value);
+    return Long.toString(value);
   }
 
   @Override
   public int hashCode() {
-    return 0;
+    return Long.hashCode(value);
   }
 
   @Override
@@ -39,7 +67,7 @@ public class IntegerData extends Data {
   }
 
   public Data deepClone() {
-    return new IntegerData(value);
+    return valueOf(value);
   }
 
   public static IntegerData cast(Data data) {
@@ -55,7 +83,9 @@ public class IntegerData extends Data {
   * @return A Boolean data with the value of the expression.
   */
   public BooleanData evaluateRelational(int op, Data data) {
-    if ("Integer" != data.getType())
+    if (data instanceof FloatData)
+      return new FloatData(value).evaluateRelational(op, data);
+    if (data.getKind() != DataKind.INTEGER)
       return new BooleanData(false);
 
     IntegerData d = (IntegerData) data;
@@ -85,29 +115,45 @@ public class IntegerData extends Data {
     if (d.value == 0) throw new RuntimeException ("Division by zero");
   }
 
+  /** Returns the opposite value, checking for overflow. */
+  public IntegerData negate() {
+    try {
+      return valueOf(Math.negateExact(value));
+    } catch (ArithmeticException e) {
+      throw new RuntimeException ("Integer overflow");
+    }
+  }
+
   /**
-  * Evaluation of arithmetic expressions. The evaluation is done
-  * "in place", returning the result on the same data.
+  * Evaluation of arithmetic expressions. The result is a new data.
+  * A Float operand promotes the operation to Float.
   * @param op Type of operator (token).
-  * @return A Boolean data with the value of the expression.
+  * @return A numeric data with the value of the expression.
   */
-  public IntegerData evaluateArithmetic(int op, Data data) {
-    assert data.getType().equals("Integer");
+  public Data evaluateArithmetic(int op, Data data) {
+    if (data instanceof FloatData)
+      return new FloatData(value).evaluateArithmetic(op, data);
+    assert data.getKind() == DataKind.INTEGER;
     IntegerData d = (IntegerData) data;
-    switch (op) {
-        case AslLexer.PLUS:
-          return new IntegerData(value + d.value);
-        case AslLexer.MINUS:
-          return new IntegerData(value - d.value);
-        case AslLexer.MUL:
-          return new IntegerData(value * d.value);
-        case AslLexer.DIV:
-          checkDivZero(d);
-          return new IntegerData(value / d.value);
-        case AslLexer.MOD:
-          checkDivZero(d);
-          return new IntegerData(value % d.value);
-        default: assert false;
+    try {
+      switch (op) {
+          case AslLexer.PLUS:
+            return valueOf(Math.addExact(value, d.value));
+          case AslLexer.MINUS:
+            return valueOf(Math.subtractExact(value, d.value));
+          case AslLexer.MUL:
+            return valueOf(Math.multiplyExact(value, d.value));
+          case AslLexer.DIV:
+            checkDivZero(d);
+            if (value == Long.MIN_VALUE && d.value == -1) throw new ArithmeticException();
+            return valueOf(value / d.value);
+          case AslLexer.MOD:
+            checkDivZero(d);
+            return valueOf(value % d.value);
+          default: assert false;
+      }
+    } catch (ArithmeticException e) {
+      throw new RuntimeException ("Integer overflow");
     }
     return null;
   }
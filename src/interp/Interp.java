@@ -30,8 +30,18 @@ package interp;
 import parser.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.io.*;
 
 /** Class that implements the interpreter of the language. */
@@ -45,103 +55,222 @@ public class Interp {
     private Stack Stack;
 
     /**
-     * Map between function names (keys) and ASTs (values).
-     * Each entry of the map stores the root of the AST
-     * correponding to the function.
+     * Program executed by the interpreter. It contains the map between
+     * function names and ASTs. The program is shared by all the
+     * interpreters executing it and must not be modified.
      */
-    private HashMap<String,AslTree> FuncName2Tree;
+    private Program program;
 
-    /** Standard input of the interpreter (System.in). */
+    /** Standard input of the interpreter (System.in by default). */
     private Scanner stdin;
 
+    /** Standard output of the interpreter (System.out by default). */
+    private PrintStream out;
+
     /**
      * Stores the line number of the current statement.
      * The line number is used to report runtime errors.
      */
     private int linenumber = -1;
 
-    /** File to write the trace of function calls. */
-    private PrintWriter trace = null;
+    /** Writer of the trace of function calls. */
+    private TraceWriter trace = null;
+
+    /**
+     * Positions of the columns referenced in the from block being
+     * evaluated, indexed by the COLUMN nodes (null outside from blocks).
+     */
+    private IdentityHashMap<AslTree,Integer> columnPositions = null;
+
+    /** Profiler of the execution (null if no profile is collected). */
+    private Profiler profiler = null;
+
+    /** Output of the plans of the from blocks (null if not written). */
+    private PrintStream explain = null;
+
+    /** From blocks whose plan has been written. */
+    private Set<AslTree> explained = null;
+
+    /** Invariant calls of the conditions of the loops, indexed by the loops. */
+    private IdentityHashMap<AslTree,LoopInvariants> loopInvariants =
+        new IdentityHashMap<AslTree,LoopInvariants>();
+
+    /**
+     * Values of the invariant calls of the loops being executed (null
+     * until the call is evaluated in the current execution of its loop).
+     */
+    private IdentityHashMap<AslTree,Data> hoisted = new IdentityHashMap<AslTree,Data>();
+
+    /** Results of the calls to pure functions. */
+    private Memo memo = new Memo();
 
     /** Nested levels of function calls. */
     private int function_nesting = -1;
 
+    /** Minimum number of rows of each partition of a parallel from block. */
+    private static final int PARALLEL_MIN_ROWS = 4096;
+
+    /** Pools of threads shared by the interpreters, indexed by their size. */
+    private static final ConcurrentHashMap<Integer,ForkJoinPool> pools =
+        new ConcurrentHashMap<Integer,ForkJoinPool>();
+
+    /** Number of threads evaluating from blocks (1 means sequential). */
+    private int parallelism = 1;
+
+    /** Threads used for the parallel evaluation of from blocks. */
+    private ForkJoinPool pool = null;
+
     /**
      * Constructor of the interpreter. It prepares the main
      * data structures for the execution of the main program.
      */
     public Interp(AslTree T, String tracefile) {
-        assert T != null;
+        this(new Program(T, null), tracefile);
+    }
+
+    /**
+     * Creates an interpreter to execute a program. Several interpreters
+     * can execute the same program concurrently.
+     * @param p The program.
+     * @param tracefile The file to write the trace (null if no trace).
+     */
+    public Interp(Program p, String tracefile) {
+        assert p != null;
+        program = p;
         funcFactory = FuncFactory.getinstance();
-        MapFunctions(T);  // Creates the table to map function names into AST nodes
-        PreProcessAST(T); // Some internal pre-processing ot the AST
         Stack = new Stack(); // Creates the memory of the virtual machine
-        // Initializes the standard input of the program
+        // Initializes the standard input and output of the program. The
+        // output is buffered and flushed before reading and at the end.
         stdin = new Scanner (new BufferedReader(new InputStreamReader(System.in)));
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
         if (tracefile != null) {
             try {
-                trace = new PrintWriter(new FileWriter(tracefile));
+                trace = new TraceWriter(tracefile);
             } catch (IOException e) {
-                System.err.println(e);
-                System.exit(1);
+                throw new RuntimeException("trace file " + tracefile + " could not be opened");
             }
         }
         function_nesting = -1;
     }
 
-    /** Runs the program by calling the main function without parameters. */
-    public Data Run() {
-        Data result = executeFunction ("main", null);
-        if(result==null){
-            result = new VoidData();
-        }
-        return result;
+    /**
+     * Creates an interpreter to execute a program on behalf of another
+     * interpreter (e.g. a script executed with source). It uses the
+     * standard input and output of the caller.
+     */
+    public Interp(Program p, Interp caller) {
+        program = p;
+        funcFactory = caller.funcFactory;
+        Stack = new Stack();
+        stdin = caller.stdin;
+        out = caller.out;
+        profiler = caller.profiler;
+        explain = caller.explain;
+        explained = caller.explained;
+        parallelism = caller.parallelism;
+        pool = caller.pool;
     }
 
-    /** Returns the contents of the stack trace */
-    public String getStackTrace() {
-        return Stack.getStackTrace(lineNumber());
+    /**
+     * Creates an interpreter to evaluate a from block in a worker thread.
+     * It shares the program with the parent, but has its own memory (a
+     * copy of the current activation record) and line number.
+     */
+    private Interp(Interp parent) {
+        program = parent.program;
+        funcFactory = parent.funcFactory;
+        Stack = parent.Stack.snapshot();
+        stdin = parent.stdin;
+        out = parent.out;
+        linenumber = parent.linenumber;
     }
 
-    /** Returns a summarized contents of the stack trace */
-    public String getStackTrace(int nitems) {
-        return Stack.getStackTrace(lineNumber(), nitems);
+    /** Defines the standard input of the program. */
+    public void setInput(InputStream in) {
+        stdin = new Scanner (new BufferedReader(new InputStreamReader(in)));
+    }
+
+    /** Defines the standard output of the program. */
+    public void setOutput(PrintStream o) {
+        out = o;
+    }
+
+    public PrintStream getOutput() {
+        return out;
     }
 
     /**
-     * Gathers information from the AST and creates the map from
-     * function names to the corresponding AST nodes.
+     * Defines the profiler that collects the time and memory of the
+     * execution. From blocks are evaluated sequentially while profiling.
      */
-    private void MapFunctions(AslTree T) {
-        assert T != null && T.getType() == AslLexer.LIST_FUNCTIONS;
-        FuncName2Tree = new HashMap<String,AslTree> ();
-        int n = T.getChildCount();
-        for (int i = 0; i < n; ++i) {
-            AslTree f = T.getChild(i);
-            assert f.getType() == AslLexer.FUNC;
-            String fname = f.getChild(0).getText();
-            if (FuncName2Tree.containsKey(fname)) {
-                throw new RuntimeException("Multiple definitions of function " + fname);
+    public void setProfiler(Profiler p) {
+        profiler = p;
+    }
+
+    /** Defines the output where the plan of each from block is written. */
+    public void setExplain(PrintStream o) {
+        explain = o;
+        explained = Collections.newSetFromMap(new IdentityHashMap<AslTree,Boolean>());
+    }
+
+    /** Returns the value of a variable of the current activation record. */
+    Data getVariable(String name) {
+        return Stack.getVariable(name);
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * Defines the number of threads used to evaluate from blocks. Blocks
+     * on large tables without side effects are split in partitions of
+     * rows that are evaluated in parallel.
+     */
+    public void setParallelism(int n) {
+        parallelism = n < 1 ? 1 : n;
+        if (parallelism == 1) pool = null;
+        else pool = pools.computeIfAbsent(parallelism, k -> new ForkJoinPool(k));
+    }
+
+    /** Runs the program by calling the main function without parameters. */
+    public Data Run() {
+        try {
+            Data result = executeFunction ("main", null);
+            if(result==null){
+                result = new VoidData();
             }
-            FuncName2Tree.put(fname, f);
+            return result;
+        } finally {
+            out.flush();
+            if (trace != null) trace.close();
         }
     }
 
     /**
-     * Performs some pre-processing on the AST. Basically, it
-     * calculates the value of the literals and stores a simpler
-     * representation. See AslTree.java for details.
+     * Runs a function of the program with the given arguments. The
+     * arguments are not copied, so parameters passed by value must
+     * not be modified by the caller during the execution.
      */
-    private void PreProcessAST(AslTree T) {
-        if (T == null) return;
-        switch(T.getType()) {
-            case AslLexer.INT: T.setIntValue(); break;
-            case AslLexer.STRING: T.setStringValue(); break;
-            case AslLexer.BOOLEAN: T.setBooleanValue(); break;
-            default: break;
+    public Data Run(String funcname, ArrayList<Data> args) {
+        AslTree f = program.getFunction(funcname);
+        if (f == null) throw new RuntimeException(" function " + funcname + " not declared");
+        if (f.getChild(1).getChildCount() != args.size()) {
+            throw new RuntimeException ("Incorrect number of parameters calling function " + funcname);
         }
-        int n = T.getChildCount();
-        for (int i = 0; i < n; ++i) PreProcessAST(T.getChild(i));
+        Data result = executeFunction (f, args);
+        out.flush();
+        return result;
+    }
+
+    /** Returns the contents of the stack trace */
+    public String getStackTrace() {
+        return Stack.getStackTrace(lineNumber());
+    }
+
+    /** Returns a summarized contents of the stack trace */
+    public String getStackTrace(int nitems) {
+        return Stack.getStackTrace(lineNumber(), nitems);
     }
 
     /**
@@ -157,6 +286,101 @@ public class Interp {
     /** Defines the current line number with a specific value */
     private void setLineNumber(int l) { linenumber = l;}
 
+    /**
+     * Executes a for loop. The range, list or table is evaluated once:
+     * assigning the loop variable or modifying the list or table in the
+     * body does not change the iterations. The variable is bound to a
+     * cursor on the rows of tables (see {@link RowData}) and to the
+     * elements of lists without copying the list.
+     */
+    private Data executeFor(AslTree t) {
+        String var = t.getChild(0).getText();
+        AslTree source = t.getChild(1);
+        AslTree body = t.getChild(2);
+        if (source.getType() == AslLexer.DOTDOT) {
+            long first = IntegerData.cast(evaluateExpression(source.getChild(0))).getValue();
+            long last = IntegerData.cast(evaluateExpression(source.getChild(1))).getValue();
+            // The exit is tested before the increment, which overflows for the largest value
+            for (long i = first; i <= last; ++i) {
+                Stack.defineVariable(var, IntegerData.valueOf(i));
+                Data r = executeListInstructions(body);
+                if (r != null) return r;
+                if (i == last) break;
+            }
+            return null;
+        }
+        // Variables are not copied
+        Data d = source.getType() == AslLexer.ID ? Stack.getVariable(source.getText())
+                                                 : evaluateExpression(source);
+        if (d instanceof TableData) {
+            // The columns are shared until the body modifies the table
+            TableData table = ((TableData) d).deepClone();
+            RowData row = new RowData(table);
+            int height = table.height();
+            for (int i = 0; i < height; ++i) {
+                row.moveTo(i);
+                Stack.defineVariable(var, row);
+                Data r = executeListInstructions(body);
+                if (r != null) return r;
+            }
+            return null;
+        }
+        if (d instanceof ListData) {
+            // The elements of the copy are not shared with anything else
+            ListData<?> elems = (ListData<?>) d.deepClone();
+            int n = elems.size();
+            for (int i = 0; i < n; ++i) {
+                Stack.defineVariable(var, elems.get(i));
+                Data r = executeListInstructions(body);
+                if (r != null) return r;
+            }
+            return null;
+        }
+        throw new RuntimeException ("Cannot iterate over " + d.getType());
+    }
+
+    /** Returns the invariant calls of the condition of a loop (null if none). */
+    private LoopInvariants loopInvariants(AslTree loop) {
+        if (loopInvariants.containsKey(loop)) return loopInvariants.get(loop);
+        LoopInvariants res = LoopInvariants.of(program, loop.getChild(0), loop.getChild(1));
+        loopInvariants.put(loop, res);
+        return res;
+    }
+
+    /**
+     * Starts an execution of a loop: its invariant calls will be
+     * evaluated again. Returns their values in the enclosing execution
+     * of the same loop (in recursive calls), which are restored when
+     * the loop finishes.
+     */
+    private Data[] enterLoop(LoopInvariants invariants) {
+        ArrayList<AslTree> calls = invariants.calls();
+        Data[] saved = new Data[calls.size()];
+        for (int i = 0; i < saved.length; ++i) saved[i] = hoisted.put(calls.get(i), null);
+        return saved;
+    }
+
+    private void exitLoop(LoopInvariants invariants, Data[] saved) {
+        ArrayList<AslTree> calls = invariants.calls();
+        for (int i = 0; i < saved.length; ++i) {
+            if (saved[i] == null) hoisted.remove(calls.get(i));
+            else hoisted.put(calls.get(i), saved[i]);
+        }
+    }
+
+    /** Returns the value of an invariant call, which is evaluated the first time. */
+    private Data evaluateHoisted(AslTree t) {
+        Data value = hoisted.get(t);
+        if (value == null) {
+            value = executeFunction(t.getChild(0).getText(), t.getChild(1));
+            if (Data.isType(DataKind.VOID, value)) {
+                throw new RuntimeException ("function expected to return a value");
+            }
+            hoisted.put(t, value);
+        }
+        return value.deepClone();
+    }
+
     /**
      * Executes a function.
      * @param funcname The name of the function.
@@ -166,18 +390,43 @@ public class Interp {
     private Data executeFunction (String funcname, AslTree args) {
         if (funcFactory.contains(funcname)) {
           SpecialFunc sf = funcFactory.getFunction(funcname);
-          Data result = sf.call(listArguments(args));
+          ArrayList<Data> Arg_values = listArguments(args);
+          if (profiler != null) profiler.enter(Profiler.SPECIAL, funcname);
+          long start = Metrics.enabled ? System.nanoTime() : 0;
+          Data result = sf.call(this, Arg_values);
+          if (Metrics.enabled) Metrics.record(funcname + ".nanos", System.nanoTime() - start);
+          if (profiler != null) profiler.exit();
           return result;
         }
 
         // Get the AST of the function
-        AslTree f = FuncName2Tree.get(funcname);
+        AslTree f = program.getFunction(funcname);
         if (f == null) throw new RuntimeException(" function " + funcname + " not declared");
 
         // Gather the list of arguments of the caller. This function
         // performs all the checks required for the compatibility of
         // parameters.
         ArrayList<Data> Arg_values = listArguments(f, args);
+        return executeFunction(f, Arg_values);
+    }
+
+    /**
+     * Executes a user function with the values of its arguments.
+     * @param f The AST of the function.
+     * @param Arg_values The values of the parameters.
+     * @return The data returned by the function.
+     */
+    private Data executeFunction (AslTree f, ArrayList<Data> Arg_values) {
+        String funcname = f.getChild(0).getText();
+
+        // Pure functions return the result of a previous call with the
+        // same arguments (all the calls are written in the trace)
+        ArrayList<Object> key = null;
+        if (trace == null && program.getSideEffects().isPure(funcname)) {
+            key = Memo.key(f, Arg_values);
+            Data result = key == null ? null : memo.get(key);
+            if (result != null) return result;
+        }
 
         // Dumps trace information (function call and arguments)
         if (trace != null) traceFunctionCall(f, Arg_values);
@@ -188,6 +437,7 @@ public class Interp {
 
         // Create the activation record in memory
         Stack.pushActivationRecord(funcname, lineNumber());
+        if (profiler != null) profiler.enter(Profiler.FUNCTION, funcname);
 
         // Track line number
         setLineNumber(f);
@@ -208,8 +458,10 @@ public class Interp {
         if (trace != null) traceReturn(f, result, Arg_values);
 
         // Destroy the activation record
+        if (profiler != null) profiler.exit();
         Stack.popActivationRecord();
 
+        if (key != null) memo.put(key, result);
         return result;
     }
 
@@ -244,6 +496,7 @@ public class Interp {
         assert t != null;
 
         setLineNumber(t);
+        if (profiler != null) profiler.line(program.getName(), linenumber);
         Data value; // The returned value
 
         // A big switch for all type of instructions
@@ -265,10 +518,7 @@ public class Interp {
 
             // If-then-else
             case AslLexer.IF: {
-                value = evaluateExpression(t.getChild(0));
-                checkType("Boolean", value);
-                BooleanData bool_value = (BooleanData) value;
-                if (bool_value.getValue()) return executeListInstructions(t.getChild(1));
+                if (evaluateCondition(t.getChild(0))) return executeListInstructions(t.getChild(1));
                 // Is there else statement ?
                 if (t.getChildCount() == 3) return executeListInstructions(t.getChild(2));
                 return null;
@@ -276,17 +526,23 @@ public class Interp {
 
             // While
             case AslLexer.WHILE: {
-                BooleanData bool_value;
-                while (true) {
-                    value = evaluateExpression(t.getChild(0));
-                    checkType("Boolean", value);
-                    bool_value = (BooleanData) value;
-                    if (!bool_value.getValue()) return null;
-                    Data r = executeListInstructions(t.getChild(1));
-                    if (r != null) return r;
+                LoopInvariants invariants = loopInvariants(t);
+                Data[] saved = invariants == null ? null : enterLoop(invariants);
+                try {
+                    while (true) {
+                        if (!evaluateCondition(t.getChild(0))) return null;
+                        Data r = executeListInstructions(t.getChild(1));
+                        if (r != null) return r;
+                    }
+                } finally {
+                    if (invariants != null) exitLoop(invariants, saved);
                 }
             }
 
+            // For
+            case AslLexer.FOR:
+                return executeFor(t);
+
             // Return
             case AslLexer.RETURN: {
                 if (t.getChildCount() != 0) {
@@ -299,10 +555,11 @@ public class Interp {
             // in case of a format error.
             case AslLexer.READ: {
                 String token = null;
-                IntegerData val = new IntegerData();
+                IntegerData val;
                 try {
+                    out.flush();
                     token = stdin.next();
-                    val.setValue(Integer.parseInt(token));
+                    val = IntegerData.valueOf(Long.parseLong(token));
                 } catch (NumberFormatException ex) {
                     throw new RuntimeException ("Format error when reading a number: " + token);
                 }
@@ -315,12 +572,12 @@ public class Interp {
                 AslTree v = t.getChild(0);
                 // Special case for strings
                 if (v.getType() == AslLexer.STRING) {
-                    System.out.format(v.getStringValue());
+                    out.format(v.getStringValue());
                     return null;
                 }
 
                 // Write an expression
-                System.out.print(String.format(evaluateExpression(v).toString()));
+                evaluateExpression(v).print(out);
                 return null;
             }
 
@@ -329,14 +586,14 @@ public class Interp {
                 AslTree v = t.getChild(0);
                 // Special case for strings
                 if (v.getType() == AslLexer.STRING) {
-                    System.out.format(v.getStringValue());
-                    System.out.println("");
+                    out.format(v.getStringValue());
+                    out.println("");
                     return null;
                 }
 
                 // Write an expression
-                System.out.print(String.format(evaluateExpression(v).toString()));
-                System.out.println("");
+                evaluateExpression(v).print(out);
+                out.println("");
                 return null;
             }
 
@@ -375,7 +632,11 @@ public class Interp {
                 break;
             // An integer literal
             case AslLexer.INT:
-                value = new IntegerData(t.getIntValue());
+                value = IntegerData.valueOf(t.getIntValue());
+                break;
+            // A float literal
+            case AslLexer.FLOAT:
+                value = new FloatData(t.getFloatValue());
                 break;
             // A Boolean literal
             case AslLexer.BOOLEAN:
@@ -383,9 +644,13 @@ public class Interp {
                 break;
             // A function call. Checks that the function returns a result.
             case AslLexer.FUNCALL:
+                if (!hoisted.isEmpty() && hoisted.containsKey(t)) {
+                    value = evaluateHoisted(t);
+                    break;
+                }
                 value = executeFunction(t.getChild(0).getText(), t.getChild(1));
                 assert value != null;
-                if (Data.isType("Void", value)) {
+                if (Data.isType(DataKind.VOID, value)) {
                     throw new RuntimeException ("function expected to return a value");
                 }
                 break;
@@ -401,25 +666,21 @@ public class Interp {
                 }
                 value = new ListData<Data>(llista);
                 break;
-            case AslLexer.DICT:
-                HashMap<StringData,Data> dict = new HashMap<StringData,Data>();
-                StringData col; Data d;
-                for(int i = 0; i<t.getChildCount(); i+=2){
-                   col = (StringData) evaluateExpression(t.getChild(i));
-                   d = evaluateExpression(t.getChild(i+1));
-                   dict.put(col,d);
+            case AslLexer.DICT: {
+                Data[] values = new Data[t.getChildCount()/2];
+                for(int i = 0; i<values.length; ++i){
+                   values[i] = evaluateExpression(t.getChild(2*i+1));
                 }
-                value = new DictData(dict);
+                value = dictLiteral(t, values);
                 break;
+            }
             case AslLexer.ACCESS:
-                Data container = Stack.getVariable(t.getChild(0).getText()).deepClone();
-                value = accessData(t,container);
+                Data container = Stack.getVariable(t.getChild(0).getText());
+                value = accessData(t,container).deepClone();
                 break;
-            case AslLexer.FROM: {
-                Data table = Stack.getVariable(t.getChild(0).getText());
-                value = evaluateFromActions(table,t.getChild(1));
+            case AslLexer.FROM:
+                value = evaluateFrom(t);
                 break;
-            }
             default: break;
         }
 
@@ -429,22 +690,32 @@ public class Interp {
             return value;
         }
 
+        // Integer arithmetic and comparisons (see TypeInference)
+        if (t.getKind() == DataKind.INTEGER) {
+            value = IntegerData.valueOf(evaluateLong(t));
+            setLineNumber(previous_line);
+            return value;
+        }
+        if (isIntegerComparison(t)) {
+            value = new BooleanData(evaluateComparison(t));
+            setLineNumber(previous_line);
+            return value;
+        }
+
         // Unary operators
         value = evaluateExpression(t.getChild(0));
         if (t.getChildCount() == 1) {
             switch (type) {
                 case AslLexer.PLUS:
-                    checkType("Integer", value);
+                    checkNumeric(value);
                     break;
                 case AslLexer.MINUS:
-                    checkType("Integer", value);
-                    IntegerData int_val = (IntegerData) value;
-                    int_val.setValue(-int_val.getValue());
+                    checkNumeric(value);
+                    value = negate(value);
                     break;
                 case AslLexer.NOT:
-                    checkType("Boolean", value);
-                    BooleanData bool_val = (BooleanData) value;
-                    bool_val.setValue(!bool_val.getValue());
+                    if (t.getChild(0).getKind() != DataKind.BOOLEAN) checkType(DataKind.BOOLEAN, value);
+                    value = new BooleanData(!((BooleanData) value).getValue());
                     break;
                 default: assert false; // Should never happen
             }
@@ -463,7 +734,7 @@ public class Interp {
             case AslLexer.GT:
             case AslLexer.GE:
                 value2 = evaluateExpression(t.getChild(1));
-                if (value.getType() != value2.getType()) {
+                if (!Data.comparable(value, value2)) {
                   throw new RuntimeException ("Incompatible types in relational expression");
                 }
                 value = value.evaluateRelational(type, value2);
@@ -484,7 +755,7 @@ public class Interp {
             case AslLexer.OR:
                 // The first operand is evaluated, but the second
                 // is deferred (lazy, short-circuit evaluation).
-                checkType("Boolean", value);
+                if (t.getChild(0).getKind() != DataKind.BOOLEAN) checkType(DataKind.BOOLEAN, value);
                 value = evaluateBoolean(type,(BooleanData)value,t.getChild(1));
                 break;
 
@@ -509,7 +780,11 @@ public class Interp {
                 break;
             }
             case AslLexer.INT: {
-                value = new IntegerData(t.getIntValue());
+                value = IntegerData.valueOf(t.getIntValue());
+                break;
+            }
+            case AslLexer.FLOAT: {
+                value = new FloatData(t.getFloatValue());
                 break;
             }
             case AslLexer.BOOLEAN: {
@@ -519,7 +794,7 @@ public class Interp {
             case AslLexer.FUNCALL: {
                 value = executeFunction(t.getChild(0).getText(), t.getChild(1));
                 assert value != null;
-                if (Data.isType("Void", value)) {
+                if (Data.isType(DataKind.VOID, value)) {
                     throw new RuntimeException ("function expected to return a value");
                 }
                 break;
@@ -535,26 +810,22 @@ public class Interp {
                 }
                 value = new ListData<Data>(llista);
                 break;
-            case AslLexer.DICT:
-                HashMap<StringData,Data> dict = new HashMap<StringData,Data>();
-                StringData col; Data d;
-                for(int i = 0; i<t.getChildCount(); i+=2){
-                   col = (StringData) evaluateContextExpression(table, row_i, t.getChild(i));
-                   d = evaluateContextExpression(table, row_i, t.getChild(i+1));
-                   dict.put(col,d);
+            case AslLexer.DICT: {
+                Data[] values = new Data[t.getChildCount()/2];
+                for(int i = 0; i<values.length; ++i){
+                   values[i] = evaluateContextExpression(table, row_i, t.getChild(2*i+1));
                 }
-                value = new DictData(dict);
+                value = dictLiteral(t, values);
                 break;
+            }
             case AslLexer.ACCESS: {
-                Data container = Stack.getVariable(t.getChild(0).getText()).deepClone();
-                value = accessData(t,container);
+                Data container = Stack.getVariable(t.getChild(0).getText());
+                value = accessData(t,container).deepClone();
                 break;
             }
-            case AslLexer.FROM: {
-                Data table_aux = Stack.getVariable(t.getChild(0).getText());
-                value = evaluateFromActions(table_aux,t.getChild(1));
+            case AslLexer.FROM:
+                value = evaluateFrom(t);
                 break;
-            }
 
             default: break;
         }
@@ -569,21 +840,24 @@ public class Interp {
         if (t.getChildCount() == 1) {
             switch (type) {
                 case AslLexer.PLUS:
-                    checkType("Integer", value);
+                    checkNumeric(value);
                     break;
                 case AslLexer.MINUS:
-                    checkType("Integer", value);
-                    IntegerData int_val = (IntegerData) value;
-                    int_val.setValue(-int_val.getValue());
+                    checkNumeric(value);
+                    value = negate(value);
                     break;
                 case AslLexer.NOT:
-                    checkType("Boolean", value);
-                    BooleanData bool_val = (BooleanData) value;
-                    bool_val.setValue(!bool_val.getValue());
+                    if (t.getChild(0).getKind() != DataKind.BOOLEAN) checkType(DataKind.BOOLEAN, value);
+                    value = new BooleanData(!((BooleanData) value).getValue());
                     break;
                 case AslLexer.COLUMN: {
-                    Data colData = evaluateExpression(t.getChild(0));
-                    value = table.get(row_i, colData);
+                    Integer pos = columnPositions == null ? null : columnPositions.get(t);
+                    if (pos != null) {
+                        value = table.getColumn(pos).get(row_i);
+                    } else {
+                        Data colData = evaluateExpression(t.getChild(0));
+                        value = table.get(row_i, colData);
+                    }
                     break;
                 }
                 default: assert false; // Should never happen
@@ -602,7 +876,7 @@ public class Interp {
             case AslLexer.GT:
             case AslLexer.GE:
                 value2 = evaluateContextExpression(table, row_i, t.getChild(1));
-                if (value.getType() != value2.getType()) {
+                if (!Data.comparable(value, value2)) {
                   throw new RuntimeException ("Incompatible types in relational expression");
                 }
                 value = value.evaluateRelational(type, value2);
@@ -623,7 +897,7 @@ public class Interp {
             case AslLexer.OR:
                 // The first operand is evaluated, but the second
                 // is deferred (lazy, short-circuit evaluation).
-                checkType("Boolean", value);
+                checkType(DataKind.BOOLEAN, value);
                 value = evaluateContextShortCircuit(table,row_i,type,(BooleanData)value,t.getChild(1));
                 break;
 
@@ -636,50 +910,218 @@ public class Interp {
     }
 
 
+    /**
+     * Evaluates a from block. The table is usually a variable, which is
+     * not copied. If it is read with read_file and the file is not
+     * cached (see {@link TableCache}), the conditions of the leading
+     * select actions that compare columns with constants are checked
+     * while the file is read (see {@link ScanFilter}).
+     */
+    private Data evaluateFrom(AslTree t) {
+      AslTree source = t.getChild(0);
+      AslTree actions = t.getChild(1);
+      if (source.getType() == AslLexer.ID) {
+        return evaluateFromActions(Stack.getVariable(source.getText()), actions);
+      }
+      if (source.getType() == AslLexer.FUNCALL && source.getChild(0).getText().equals("read_file")
+          && source.getChild(1).getChildCount() == 1) {
+        ScanFilter filter = ScanFilter.of(actions);
+        if (filter != null) {
+          String path = StringData.cast(evaluateExpression(source.getChild(1).getChild(0))).getValue();
+          TableData cached = TableCache.get(path);
+          if (cached != null) return evaluateFromActions(cached, actions);
+          if (profiler != null) profiler.enter(Profiler.SPECIAL, "read_file");
+          long start = Metrics.enabled ? System.nanoTime() : 0;
+          TableData table = SpecialFunc.ReadFile.read(path, filter);
+          if (Metrics.enabled) Metrics.record("read_file.nanos", System.nanoTime() - start);
+          if (profiler != null) profiler.exit();
+          return evaluateFromActions(table, actions, filter);
+        }
+      }
+      return evaluateFromActions(evaluateExpression(source), actions);
+    }
+
     public Data evaluateFromActions(Data table, AslTree t) {
+      return evaluateFromActions(table, t, null);
+    }
+
+    /**
+     * Evaluates the actions of a from block following a plan (see
+     * {@link FromPlan}). The plan is written the first time the block
+     * is evaluated if requested (option -explain).
+     * @param filter Filter of the leading select actions that have
+     *   already been applied to the table (null if none).
+     */
+    private Data evaluateFromActions(Data table, AslTree t, ScanFilter filter) {
       assert t.getType() == AslLexer.FROM_ACTIONS;
-      assert Data.isType("Table", table);
-      int n = t.getChildCount();
-
-      TableData res = new TableData();
-      TableData previous = TableData.cast(table);
-      for (int i=0; i<n; i++) {
-        res = new TableData(previous.getStringDataLabels(),previous.getTypes());
-        int type = t.getChild(i).getType();
-        for (int j=0; j<previous.height(); j++) {
-          boolean b;
-          DictData row;
-          switch(type) {
-            case AslLexer.SELECT: {
-                b = evaluateContextBoolean(previous,j,t.getChild(i).getChild(0));
-                if (b) res.addRow(previous.get(j));
-                break;
-            }
+      assert Data.isType(DataKind.TABLE, table);
+      TableData source = TableData.cast(table);
+      long start = Metrics.enabled ? System.nanoTime() : 0;
+      int action = filter == null ? 0 : filter.pushedActions();
+      // Sampling user functions would add calls to the trace
+      FromPlan plan = FromPlan.build(this, source, t, action, trace == null);
+      if (explain != null && explained.add(t)) {
+        plan.explain(explain, program.getName(), lineNumber(), source, filter);
+      }
+      TableData res;
+      if (profiler != null) {
+        profiler.enter(Profiler.FROM, "from:" + lineNumber());
+        res = evaluateFromActions(source, t, plan, 0, source.height());
+        profiler.exit();
+      } else if (pool != null && trace == null && source.height() >= 2*PARALLEL_MIN_ROWS
+          && !plan.steps().isEmpty() && !program.getSideEffects().hasSideEffects(t)) {
+        res = evaluateFromActionsParallel(source, t, plan);
+        if (Metrics.enabled) Metrics.count("from.parallel_blocks", 1);
+      } else {
+        res = evaluateFromActions(source, t, plan, 0, source.height());
+      }
+      if (Metrics.enabled) Metrics.record("from.nanos", System.nanoTime() - start);
+      return res;
+    }
 
-            case AslLexer.FILTER: {
-                b = !evaluateContextBoolean(previous,j,t.getChild(i).getChild(0));
-                if (b) res.addRow(previous.get(j));
-                break;
+    /**
+     * Evaluates the actions of a from block in parallel. The table is
+     * split in ranges of rows, the actions are applied to each range by
+     * a different interpreter and the results are concatenated in order.
+     */
+    private TableData evaluateFromActionsParallel(final TableData table, final AslTree t, final FromPlan plan) {
+      int height = table.height();
+      int size = Math.max(PARALLEL_MIN_ROWS, (height + 4*parallelism - 1) / (4*parallelism));
+      ArrayList<Callable<TableData>> tasks = new ArrayList<Callable<TableData>>();
+      for (int from = 0; from < height; from += size) {
+        final int first = from;
+        final int last = Math.min(height, from + size);
+        final Interp worker = new Interp(this);
+        tasks.add(new Callable<TableData>() {
+          public TableData call() {
+            try {
+              return worker.evaluateFromActions(table, t, plan, first, last);
+            } catch (RuntimeException e) {
+              setLineNumber(worker.lineNumber());
+              throw e;
             }
+          }
+        });
+      }
 
-            case AslLexer.UPDATE: {
-                Data col, value;
-                if (t.getChild(i).getChildCount()<3) {
-                  col = evaluateExpression(t.getChild(i).getChild(0));
-                  value = evaluateExpression(t.getChild(i).getChild(1));
-                  b = true;
-                } else {
-                  col = evaluateExpression(t.getChild(i).getChild(0));
-                  value = evaluateExpression(t.getChild(i).getChild(2));
-                  b =evaluateContextBoolean(previous,j,t.getChild(i).getChild(1));
-                }
-                res.addRow(previous.get(j));
-                if (b) res.put(j,StringData.cast(col),value);
-                break;
-            }
+      List<Future<TableData>> parts = pool.invokeAll(tasks);
+      TableData res = null;
+      ArrayList<TableData> rest = new ArrayList<TableData>();
+      for (Future<TableData> part : parts) {
+        TableData partial;
+        try {
+          partial = part.get();
+        } catch (InterruptedException e) {
+          throw new RuntimeException("Interrupted evaluation of from block");
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+          if (e.getCause() instanceof Error) throw (Error) e.getCause();
+          throw new RuntimeException(e.getCause());
+        }
+        if (res == null) res = partial;
+        else rest.add(partial);
+      }
+      res.merge(rest);
+      return res;
+    }
 
-            default: assert false;
+    /**
+     * Evaluates the steps of the plan of a from block. The first step
+     * is applied to the rows of the table in the range [from,to) and
+     * each of the following steps to all the rows produced by the
+     * previous one.
+     */
+    private TableData evaluateFromActions(TableData table, AslTree t, FromPlan plan, int from, int to) {
+      IdentityHashMap<AslTree,Integer> enclosing = columnPositions;
+      columnPositions = new IdentityHashMap<AslTree,Integer>();
+      resolveColumns(table, t, columnPositions);
+      try {
+        return evaluateSteps(table, plan.steps(), from, to);
+      } finally {
+        columnPositions = enclosing;
+      }
+    }
+
+    /**
+     * Finds the column references of a from block with a constant name
+     * (string or integer) and stores their positions in the table. All
+     * the actions of the block are applied to tables with the same
+     * columns. Nested from blocks are not visited.
+     */
+    private static void resolveColumns(TableData table, AslTree t, IdentityHashMap<AslTree,Integer> positions) {
+      if (t.getType() == AslLexer.FROM) return;
+      if (t.getType() == AslLexer.COLUMN) {
+        AslTree name = t.getChild(0);
+        int pos = -1;
+        if (name.getType() == AslLexer.STRING) {
+          pos = table.findColumn(new StringData(name.getStringValue()));
+        } else if (name.getType() == AslLexer.INT && name.getIntValue() < table.width()) {
+          pos = (int) name.getIntValue();
+        }
+        // Unknown columns are resolved for each row to report the error
+        if (pos >= 0) positions.put(t, pos);
+        return;
+      }
+      for (int i=0; i<t.getChildCount(); i++) resolveColumns(table, t.getChild(i), positions);
+    }
+
+    /**
+     * Evaluates the steps of the plan of a from block. The checks of
+     * predicates produce views of the surviving rows of the previous
+     * table, so the cells are only copied by update (and only the
+     * columns that are modified).
+     */
+    private TableData evaluateSteps(TableData table, ArrayList<FromPlan.Step> steps, int from, int to) {
+
+      TableData res = table;
+      TableData previous = table;
+      for (int i=0; i<steps.size(); i++) {
+        FromPlan.Step step = steps.get(i);
+        int first = i == 0 ? from : 0;
+        int last = i == 0 ? to : previous.height();
+        int[] rows = null;
+        int count = 0;
+        int updated = 0;
+        if (!step.isUpdate()) {
+          RowPredicate test = step.predicate(this, previous, columnPositions);
+          rows = new int[last - first];
+          for (int j=first; j<last; j++) {
+            if (test.test(j)) rows[count++] = j;
+          }
+          res = previous.view(count == rows.length ? rows : Arrays.copyOf(rows, count));
+        } else {
+          if (first == 0 && last == previous.height()) {
+            res = previous.deepClone();
+          } else {
+            rows = new int[last - first];
+            for (int j=first; j<last; j++) rows[count++] = j;
+            res = previous.view(rows);
           }
+          AslTree update = step.update;
+          RowPredicate when = update.getChildCount() < 3 ? null
+            : ExprCompiler.compile(this, previous, columnPositions, update.getChild(1), false);
+          for (int j=first; j<last; j++) {
+            Data col, value;
+            boolean b;
+            if (update.getChildCount()<3) {
+              col = evaluateExpression(update.getChild(0));
+              value = evaluateExpression(update.getChild(1));
+              b = true;
+            } else {
+              col = evaluateExpression(update.getChild(0));
+              value = evaluateExpression(update.getChild(2));
+              b = when.test(j);
+            }
+            if (b) {
+              res.put(j-first,StringData.cast(col),value);
+              updated++;
+            }
+          }
+        }
+        if (Metrics.enabled) {
+          Metrics.count("from." + step.name + ".rows_in", last - first);
+          Metrics.count("from." + step.name + ".rows_out", res.height());
+          if (step.isUpdate()) Metrics.count("from.update.rows_updated", updated);
         }
         previous = res;
       }
@@ -688,7 +1130,7 @@ public class Interp {
 
     public boolean evaluateContextBoolean(TableData table, int i, AslTree t) {
       Data res = evaluateContextExpression(table, i, t);
-      checkType("Boolean", res);
+      checkType(DataKind.BOOLEAN, res);
       return BooleanData.cast(res).getValue();
     }
 
@@ -721,9 +1163,91 @@ public class Interp {
 
         // Return the value of the second expression
         Data aux = evaluateExpression(t);
-        checkType("Boolean", aux);
+        if (t.getKind() != DataKind.BOOLEAN) checkType(DataKind.BOOLEAN, aux);
         return (BooleanData) aux;
     }
+
+    /** Evaluates the condition of an if or while, which must be Boolean. */
+    private boolean evaluateCondition(AslTree t) {
+        if (isIntegerComparison(t)) return evaluateComparison(t);
+        Data value = evaluateExpression(t);
+        if (t.getKind() != DataKind.BOOLEAN) checkType(DataKind.BOOLEAN, value);
+        return ((BooleanData) value).getValue();
+    }
+
+    /**
+     * Evaluates an expression whose values are statically Integer (see
+     * TypeInference). The operators are applied to the values without
+     * creating the intermediate data.
+     */
+    private long evaluateLong(AslTree t) {
+        int type = t.getType();
+        switch (type) {
+            case AslLexer.INT:
+                return t.getIntValue();
+            case AslLexer.ID:
+                return ((IntegerData) Stack.getVariable(t.getText())).getValue();
+            case AslLexer.PLUS:
+            case AslLexer.MINUS:
+            case AslLexer.MUL:
+            case AslLexer.DIV:
+            case AslLexer.MOD:
+                break;
+            default:
+                return ((IntegerData) evaluateExpression(t)).getValue();
+        }
+        long a = evaluateLong(t.getChild(0));
+        try {
+            if (t.getChildCount() == 1) {
+                return type == AslLexer.MINUS ? Math.negateExact(a) : a;
+            }
+            long b = evaluateLong(t.getChild(1));
+            switch (type) {
+                case AslLexer.PLUS: return Math.addExact(a, b);
+                case AslLexer.MINUS: return Math.subtractExact(a, b);
+                case AslLexer.MUL: return Math.multiplyExact(a, b);
+                case AslLexer.DIV:
+                    if (b == 0) throw new RuntimeException ("Division by zero");
+                    if (a == Long.MIN_VALUE && b == -1) throw new ArithmeticException();
+                    return a / b;
+                default:
+                    if (b == 0) throw new RuntimeException ("Division by zero");
+                    return a % b;
+            }
+        } catch (ArithmeticException e) {
+            throw new RuntimeException ("Integer overflow");
+        }
+    }
+
+    /** Checks whether the tree compares two statically Integer expressions. */
+    private static boolean isIntegerComparison(AslTree t) {
+        switch (t.getType()) {
+            case AslLexer.EQUAL:
+            case AslLexer.NOT_EQUAL:
+            case AslLexer.LT:
+            case AslLexer.LE:
+            case AslLexer.GT:
+            case AslLexer.GE:
+                return t.getChild(0).getKind() == DataKind.INTEGER
+                    && t.getChild(1).getKind() == DataKind.INTEGER;
+            default:
+                return false;
+        }
+    }
+
+    /** Evaluates a comparison of two statically Integer expressions. */
+    private boolean evaluateComparison(AslTree t) {
+        long a = evaluateLong(t.getChild(0));
+        long b = evaluateLong(t.getChild(1));
+        switch (t.getType()) {
+            case AslLexer.EQUAL: return a == b;
+            case AslLexer.NOT_EQUAL: return a != b;
+            case AslLexer.LT: return a < b;
+            case AslLexer.LE: return a <= b;
+            case AslLexer.GT: return a > b;
+            default: return a >= b;
+        }
+    }
     private Data evaluateContextShortCircuit (TableData table, int row_i, int type, BooleanData v, AslTree t) {
         // Boolean evaluation with short-circuit
 
@@ -743,17 +1267,30 @@ public class Interp {
 
         // Return the value of the second expression
         Data aux = evaluateContextExpression(table, row_i, t);
-        checkType("Boolean", aux);
+        checkType(DataKind.BOOLEAN, aux);
         return (BooleanData) aux;
     }
 
     /** Checks that the data is Type type and raises an exception if it is not. */
-    private void checkType (String type, Data b) {
-        if (b.getType() != type) {
+    private void checkType (DataKind type, Data b) {
+        if (b.getKind() != type) {
             throw new RuntimeException ("Expecting " + type + " expression");
         }
     }
 
+    /** Checks that the data is Integer or Float and raises an exception if it is not. */
+    private void checkNumeric (Data b) {
+        if (!Data.isNumeric(b)) {
+            throw new RuntimeException ("Expecting numeric expression");
+        }
+    }
+
+    /** Returns a new numeric data with the opposite value. */
+    private Data negate (Data b) {
+        if (b instanceof FloatData) return new FloatData(-((FloatData) b).getValue());
+        return ((IntegerData) b).negate();
+    }
+
     /**
      * Gathers the list of arguments of a function call. It also checks
      * that the arguments are compatible with the parameters. In particular,
@@ -826,18 +1363,55 @@ public class Interp {
 
     private Data accessData(AslTree t, Data container){
         Data value;
-        ArrayList<Data> indexes = listArguments(t.getChild(1));
+        AslTree args = t.getChild(1);
+        ArrayList<Data> indexes = listArguments(args);
         Data i = indexes.get(0);
         Data j;
-        value = container.get(i);
+        value = getElement(container, i, args.getChild(0));
         for(int dims = 1; dims < indexes.size(); ++dims){
             j = indexes.get(dims);
-            value = value.get(j);
+            value = getElement(value, j, args.getChild(dims));
         }
 
         return value;
     }
 
+    /**
+     * Returns an element of a container. The string literals used as keys
+     * of dictionaries cache the slots of the keys (see Shape).
+     * @param node The AST of the index.
+     */
+    private static Data getElement(Data container, Data index, AslTree node) {
+        if (container instanceof DictData && node.getType() == AslLexer.STRING) {
+            return ((DictData) container).get((StringData) index, node);
+        }
+        return container.get(index);
+    }
+
+    /**
+     * Returns the dictionary of a literal. The shape of its keys is
+     * cached in the node.
+     * @param values The values of the keys, in the order of the literal.
+     */
+    private static DictData dictLiteral(AslTree t, Data[] values) {
+        Shape.Site site = t.getSite();
+        if (site == null) {
+            ArrayList<StringData> keys = new ArrayList<StringData>();
+            for (int i = 0; i < values.length; ++i) {
+                keys.add(new StringData(t.getChild(2*i).getStringValue()));
+            }
+            site = new Shape.Site(Shape.of(keys), -1);
+            t.setSite(site);
+        }
+        if (site.shape.size() == values.length) return new DictData(site.shape.copy(), values);
+        // Repeated keys: the last value is kept
+        DictData res = new DictData();
+        for (int i = 0; i < values.length; ++i) {
+            res.set(new StringData(t.getChild(2*i).getStringValue()), values[i]);
+        }
+        return res;
+    }
+
     private void accessDataAndAssign(AslTree t, Data container, Data value){
         Data elem;
         ArrayList<Data> indexes = listArguments(t.getChild(1));
@@ -845,35 +1419,41 @@ public class Interp {
         Data j = new VoidData();
         Data parent = container;
         Data great_parent = new VoidData();
-        elem = container.get(i);
+        elem = getElement(container, i, t.getChild(1).getChild(0));
 
         for(int dims = 1; dims < indexes.size(); ++dims){
             great_parent = parent;
             parent = elem;
             j = i;
             i = indexes.get(dims);
-            elem = elem.get(i);
+            elem = getElement(elem, i, t.getChild(1).getChild(dims));
         }
 
-        if(parent.getType().equals("Table") && elem.getType().equals("Dict")){
+        if(parent.getKind() == DataKind.TABLE && elem.getKind() == DataKind.DICT){
             throw new RuntimeException("Cannot replace an entire row from a table");
         }
-        if(parent.getType().equals("Dict") && elem.getType().equals("Void")){
-            DictData dict = (DictData) parent;
-            StringData key = (StringData) i;
+        // The element is replaced in its container (values such as
+        // integers are shared and cannot be modified in place).
+        // Rows of a table are copies of its cells: the table is updated directly.
+        if(parent.getKind() == DataKind.DICT && great_parent.getKind() == DataKind.TABLE){
             TableData table = (TableData) great_parent;
             IntegerData row = (IntegerData) j;
-            if(great_parent.getType().equals("Table")) table.put(row.getValue(),key,value);
-            else dict.put(key,value);
+            table.put(row.toInt(),StringData.cast(i),value);
+        }else if(parent.getKind() == DataKind.DICT){
+            DictData dict = (DictData) parent;
+            dict.put(StringData.cast(i),value);
+        }else if(parent.getKind() == DataKind.LIST){
+            ListData<?> list = (ListData<?>) parent;
+            list.setElement(IntegerData.cast(i).toInt(),value);
         }else{
             elem.setValue(value);
         }
     }
 
     /**
-     * Writes trace information of a function call in the trace file.
-     * The information is the name of the function, the value of the
-     * parameters and the line number where the function call is produced.
+     * Records a function call in the trace. The event has the name of
+     * the function, the value of the parameters and the line number
+     * where the function call is produced.
      * @param f AST of the function
      * @param arg_values Values of the parameters passed to the function
      */
@@ -882,49 +1462,44 @@ public class Interp {
         function_nesting++;
         AslTree params = f.getChild(1);
         int nargs = params.getChildCount();
-
-        for (int i=0; i < function_nesting; ++i) trace.print("|   ");
-
-        // Print function name and parameters
-        trace.print(f.getChild(0) + "(");
+        boolean[] refs = new boolean[nargs];
+        String[] names = new String[nargs];
+        Data[] values = new Data[nargs];
         for (int i = 0; i < nargs; ++i) {
-            if (i > 0) trace.print(", ");
             AslTree p = params.getChild(i);
-            if (p.getType() == AslLexer.PREF) trace.print("&");
-            trace.print(p.getText() + "=" + arg_values.get(i));
+            refs[i] = p.getType() == AslLexer.PREF;
+            names[i] = p.getText();
+            values[i] = arg_values.get(i);
         }
-        trace.print(") ");
-
-        if (function_nesting == 0) trace.println("<entry point>");
-        else trace.println("<line " + lineNumber() + ">");
+        trace.call(function_nesting, lineNumber(), f.getChild(0).getText(), refs, names, values);
     }
 
     /**
-     * Writes the trace information about the return of a function.
-     * The information is the value of the returned value and of the
-     * variables passed by reference. It also reports the line number
-     * of the return.
+     * Records the return of a function in the trace. The event has the
+     * returned value, the value of the variables passed by reference
+     * and the line number of the return.
      * @param f AST of the function
      * @param result The value of the result
      * @param arg_values The value of the parameters passed to the function
      */
 
     private void traceReturn(AslTree f, Data result, ArrayList<Data> arg_values) {
-        for (int i=0; i < function_nesting; ++i) trace.print("|   ");
-        function_nesting--;
-        trace.print("return");
-        if (!Data.isType("Void", result)) trace.print(" " + result);
-
-        // Print the value of arguments passed by reference
         AslTree params = f.getChild(1);
         int nargs = params.getChildCount();
+        int nrefs = 0;
+        for (int i = 0; i < nargs; ++i) {
+            if (params.getChild(i).getType() == AslLexer.PREF) nrefs++;
+        }
+        String[] names = new String[nrefs];
+        Data[] values = new Data[nrefs];
+        nrefs = 0;
         for (int i = 0; i < nargs; ++i) {
             AslTree p = params.getChild(i);
             if (p.getType() == AslLexer.PVALUE) continue;
-            trace.print(", &" + p.getText() + "=" + arg_values.get(i));
+            names[nrefs] = p.getText();
+            values[nrefs++] = arg_values.get(i);
         }
-
-        trace.println(" <line " + lineNumber() + ">");
-        if (function_nesting < 0) trace.close();
+        trace.ret(function_nesting, lineNumber(), Data.isType(DataKind.VOID, result) ? null : result, names, values);
+        function_nesting--;
     }
 }
@@ -1,42 +1,88 @@
 package interp;
 import parser.*;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * List of data. The elements are kept in the most compact store for
+ * their types (see {@link ListStore}): lists of Integer, Float, Boolean
+ * or String values use primitive arrays and become generic lists of
+ * Data objects when an element of another type is added.
+ */
 
 public class ListData<T extends Data> extends Data {
 
-    private ArrayList<T> list;
+    private ListStore store;
 
-    public ListData() { list = new ArrayList<T>(); }
+    public ListData() { store = new ListStore.Generic(new ArrayList<Data>()); }
     public ListData(ArrayList<T> b) {
-      list = b;
+      store = ListStore.of(b);
+    }
+
+    private ListData(ListStore s) {
+      store = s;
+    }
+
+    /**
+     * Returns a store where the value can be inserted. The store of an
+     * empty list is chosen again for the first value.
+     */
+    private ListStore storeFor(Data data) {
+      if (store.size() == 0) store = ListStore.create(data);
+      else if (!store.accepts(data)) store = store.toGeneric();
+      return store;
+    }
+
+    /** Returns the value to store: the generic store keeps a copy. */
+    private Data stored(ListStore s, Data data) {
+      return s instanceof ListStore.Generic ? data.deepClone() : data;
     }
 
     public void add(T data) {
-      list.add((T) data.deepClone());
+      ListStore s = storeFor(data);
+      s.insert(s.size(), stored(s, data));
     }
     public void add(int i, T data) {
-      list.add(i, (T) data.deepClone());
+      if (i < 0 || i > size()) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+      ListStore s = storeFor(data);
+      s.insert(i, stored(s, data));
+    }
+
+    public void set(int i, T data) {
+      setElement(i, data);
+    }
+
+    /** Replaces an element with a value of any type (see {@link #set}). */
+    void setElement(int i, Data data) {
+      if(i>=size()) throw new RuntimeException("List lenght "+size()+" is lower than requested position "+i+"\n");
+      Objects.checkIndex(i, size());
+      if (!store.accepts(data)) store = store.toGeneric();
+      store.set(i, stored(store, data));
     }
 
     public T get(int i) {
-      if(i>=list.size()) throw new RuntimeException("List lenght "+list.size()+" is lower than requested position "+i+"\n");
-      return list.get(i);
+      if(i>=size()) throw new RuntimeException("List lenght "+size()+" is lower than requested position "+i+"\n");
+      Objects.checkIndex(i, size());
+      return (T) store.get(i);
     }
     public T get(Data d){
-        assert d.getType().equals("Integer");
+        assert d.getKind() == DataKind.INTEGER;
         IntegerData i = (IntegerData) d;
-        return get(i.getValue());
+        return get(i.toInt());
     }
 
     public void setValue(Data d){
         ListData<Data> l2 = cast(d);
-        list = (ArrayList<T>) l2.list.clone();
+        store = l2.store.copy();
     }
 
     @Override
     public int hashCode() {
-      return list.hashCode();
+      int res = 1;
+      int n = size();
+      for (int i = 0; i < n; i++) res = 31*res + store.hash(i);
+      return res;
     }
 
     @Override
@@ -46,45 +92,54 @@ public class ListData<T extends Data> extends Data {
         return false;
       }
       ListData ld = (ListData) o;
-      return list.equals(ld.list);
+      int n = size();
+      if (n != ld.size()) return false;
+      for (int i = 0; i < n; i++) {
+        if (!store.get(i).equals(ld.store.get(i))) return false;
+      }
+      return true;
     }
 
     public boolean contains(Object o) {
-      return list.contains(o);
+      return indexOf(o) >= 0;
     }
 
     public int size() {
-      return list.size();
+      return store.size();
     }
 
     public boolean empty() {
-      return list.size() == 0;
+      return size() == 0;
     }
 
     public void DropElem(Data elem){
-      if(!list.contains(elem)) throw new RuntimeException("Element " + elem.toString() + " not present in the list");
-      list.remove(elem);
+      int i = store.indexOf(elem);
+      if(i < 0) throw new RuntimeException("Element " + elem.toString() + " not present in the list");
+      store.remove(i);
     }
 
     public int indexOf(Object obj) {
-      return list.indexOf(obj);
+      return obj instanceof Data ? store.indexOf((Data) obj) : -1;
     }
 
     public ArrayList<T> toArrayList() {
-      return ((ListData<T>)deepClone()).list;
+      return (ArrayList<T>) store.copy().toGeneric().elements();
     }
 
-    public String getType() { return "List"; }
+    public DataKind getKind() { return DataKind.LIST; }
 
     public String toString() {
-      return list.toString();
+      StringBuilder sb = new StringBuilder("[");
+      int n = size();
+      for (int i = 0; i < n; i++) {
+        if (i > 0) sb.append(", ");
+        sb.append(store.get(i));
+      }
+      return sb.append(']').toString();
     }
 
     public Data deepClone() {
-      ListData<T> res = new ListData<T>();
-      for (T data: list) {
-        res.list.add((T) data.deepClone());
-      }
+      ListData<T> res = new ListData<T>(store.copy());
       assert equals(res);
       return res;
     }
@@ -98,7 +153,21 @@ public class ListData<T extends Data> extends Data {
 
     public ListData sort() {
       ListData res = ListData.cast(deepClone());
-      Collections.shuffle(res.list);
+      res.store.shuffle(new Random());
+      return res;
+    }
+
+    /**
+     * Sum of the elements (0 for the empty list). Integer and Float lists
+     * are added on their primitive values.
+     */
+    public Data sum() {
+      if (store instanceof ListStore.Integers) return IntegerData.valueOf(((ListStore.Integers) store).sum());
+      if (store instanceof ListStore.Floats && size() > 0) return new FloatData(((ListStore.Floats) store).sum());
+      Data res = IntegerData.valueOf(0);
+      for (int i = 0; i < size(); ++i) {
+        res = res.evaluateArithmetic(AslLexer.PLUS, store.get(i));
+      }
       return res;
     }
 
@@ -108,7 +177,7 @@ public class ListData<T extends Data> extends Data {
     * @return A Boolean data with the value of the expression.
     */
     public BooleanData evaluateRelational (int op, Data data) {
-      if ("List" != data.getType())
+      if (data.getKind() != DataKind.LIST)
         return new BooleanData(false);
 
       ListData<T> d = (ListData<T>) data;
@@ -123,7 +192,7 @@ public class ListData<T extends Data> extends Data {
     }
 
     public ListData<T> evaluateArithmetic (int op, Data data) {
-      assert "List".equals(data.getType());
+      assert data.getKind() == DataKind.LIST;
 
       ListData<T> list2 = (ListData<T>) data;
       switch (op) {
@@ -137,8 +206,14 @@ public class ListData<T extends Data> extends Data {
     }
 
     public ListData<T> concatLists(ListData<T> listdata2){
-        ArrayList<T> concat = this.list;
-        concat.addAll(listdata2.toArrayList());
-        return new ListData<T>(concat);
+        ListStore other = listdata2.store;
+        if (other.size() == 0) return new ListData<T>(store);
+        if (store.size() == 0) store = other.copy();
+        else if (store.getClass() == other.getClass()) store.append(other);
+        else {
+          store = store.toGeneric();
+          store.append(other);
+        }
+        return new ListData<T>(store);
     }
 }
@@ -0,0 +1,438 @@
+package interp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Storage of the elements of a list (see {@link ListData}). The lists
+ * whose elements are all Integer, Float, Boolean or String keep their
+ * values in primitive arrays, so reading an element builds a new Data
+ * object instead of returning the stored one. The other lists store
+ * the Data objects.
+ */
+
+abstract class ListStore {
+
+    /** Number of elements (the generic store uses the size of its list). */
+    protected int size = 0;
+
+    int size() {
+      return size;
+    }
+
+    /** Returns the element at a position. */
+    abstract Data get(int i);
+
+    /** Checks whether the store can keep the value without converting itself. */
+    abstract boolean accepts(Data d);
+
+    /** Replaces the element at a position with an accepted value. */
+    abstract void set(int i, Data d);
+
+    /** Inserts an accepted value at a position (size appends it). */
+    abstract void insert(int i, Data d);
+
+    abstract void remove(int i);
+
+    /** Returns a copy that shares nothing with the store. */
+    abstract ListStore copy();
+
+    /** Appends the elements of a store of the same class. */
+    abstract void append(ListStore other);
+
+    /** Permutes the elements randomly. */
+    abstract void shuffle(Random random);
+
+    /** Returns the position of the first element equal to d, or -1. */
+    int indexOf(Data d) {
+      for (int i = 0; i < size; i++) {
+        if (d.equals(get(i))) return i;
+      }
+      return -1;
+    }
+
+    /** Returns the hash code of the element at a position. */
+    int hash(int i) {
+      return get(i).hashCode();
+    }
+
+    /** Returns the elements as Data objects. */
+    Generic toGeneric() {
+      ArrayList<Data> res = new ArrayList<Data>(size);
+      for (int i = 0; i < size; i++) res.add(get(i));
+      return new Generic(res);
+    }
+
+    /** Creates an empty store for the values of the kind of d. */
+    static ListStore create(Data d) {
+      switch (d.getKind()) {
+        case INTEGER: return new Integers();
+        case FLOAT: return new Floats();
+        case BOOLEAN: return new Booleans();
+        case STRING: return new Strings();
+        default: return new Generic(new ArrayList<Data>());
+      }
+    }
+
+    /** Returns the most compact store of the elements of a list (the Data objects are not copied). */
+    static ListStore of(ArrayList<? extends Data> elems) {
+      if (elems.isEmpty()) return new Generic(new ArrayList<Data>());
+      ListStore res = create(elems.get(0));
+      if (res instanceof Generic) return new Generic(new ArrayList<Data>(elems));
+      for (Data d : elems) {
+        if (!res.accepts(d)) return new Generic(new ArrayList<Data>(elems));
+      }
+      for (Data d : elems) res.insert(res.size, d);
+      return res;
+    }
+
+    /** Swaps the elements at positions i and j. */
+    abstract void swap(int i, int j);
+
+    /** Fisher-Yates shuffle on the positions of the store. */
+    protected void permute(Random random) {
+      for (int i = size - 1; i > 0; i--) swap(i, random.nextInt(i + 1));
+    }
+
+    /** Elements stored as Data objects. */
+    static final class Generic extends ListStore {
+
+      private final ArrayList<Data> elems;
+
+      Generic(ArrayList<Data> elems) {
+        this.elems = elems;
+      }
+
+      ArrayList<Data> elements() {
+        return elems;
+      }
+
+      int size() {
+        return elems.size();
+      }
+
+      Data get(int i) {
+        return elems.get(i);
+      }
+
+      boolean accepts(Data d) {
+        return true;
+      }
+
+      void set(int i, Data d) {
+        elems.set(i, d);
+      }
+
+      void insert(int i, Data d) {
+        elems.add(i, d);
+      }
+
+      void remove(int i) {
+        elems.remove(i);
+      }
+
+      ListStore copy() {
+        ArrayList<Data> res = new ArrayList<Data>(elems.size());
+        for (Data d : elems) res.add(d.deepClone());
+        return new Generic(res);
+      }
+
+      void append(ListStore other) {
+        for (int i = 0; i < other.size(); i++) elems.add(other.get(i).deepClone());
+      }
+
+      void shuffle(Random random) {
+        Collections.shuffle(elems, random);
+      }
+
+      void swap(int i, int j) {
+        Collections.swap(elems, i, j);
+      }
+
+      int indexOf(Data d) {
+        return elems.indexOf(d);
+      }
+
+      Generic toGeneric() {
+        return this;
+      }
+    }
+
+    /** Integer elements stored in a long array. */
+    static final class Integers extends ListStore {
+
+      private long[] values = new long[0];
+
+      Data get(int i) {
+        return IntegerData.valueOf(values[i]);
+      }
+
+      long getLong(int i) {
+        return values[i];
+      }
+
+      boolean accepts(Data d) {
+        return d instanceof IntegerData;
+      }
+
+      void set(int i, Data d) {
+        values[i] = ((IntegerData) d).getValue();
+      }
+
+      void insert(int i, Data d) {
+        if (size == values.length) values = Arrays.copyOf(values, Column.grow(values.length, size + 1));
+        System.arraycopy(values, i, values, i + 1, size - i);
+        values[i] = ((IntegerData) d).getValue();
+        size++;
+      }
+
+      void remove(int i) {
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        size--;
+      }
+
+      ListStore copy() {
+        Integers res = new Integers();
+        res.values = Arrays.copyOf(values, size);
+        res.size = size;
+        return res;
+      }
+
+      void append(ListStore other) {
+        Integers o = (Integers) other;
+        if (size + o.size > values.length) values = Arrays.copyOf(values, Column.grow(values.length, size + o.size));
+        System.arraycopy(o.values, 0, values, size, o.size);
+        size += o.size;
+      }
+
+      void shuffle(Random random) {
+        permute(random);
+      }
+
+      void swap(int i, int j) {
+        long v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+      }
+
+      int indexOf(Data d) {
+        if (!(d instanceof IntegerData)) return -1;
+        long v = ((IntegerData) d).getValue();
+        for (int i = 0; i < size; i++) {
+          if (values[i] == v) return i;
+        }
+        return -1;
+      }
+
+      int hash(int i) {
+        return Long.hashCode(values[i]);
+      }
+
+      /** Sum of the elements. It raises an exception if it does not fit in 64 bits. */
+      long sum() {
+        long res = 0;
+        try {
+          for (int i = 0; i < size; i++) res = Math.addExact(res, values[i]);
+        } catch (ArithmeticException e) {
+          throw new RuntimeException("Integer overflow");
+        }
+        return res;
+      }
+    }
+
+    /** Float elements stored in a double array. */
+    static final class Floats extends ListStore {
+
+      private double[] values = new double[0];
+
+      Data get(int i) {
+        return new FloatData(values[i]);
+      }
+
+      boolean accepts(Data d) {
+        return d instanceof FloatData;
+      }
+
+      void set(int i, Data d) {
+        values[i] = ((FloatData) d).getValue();
+      }
+
+      void insert(int i, Data d) {
+        if (size == values.length) values = Arrays.copyOf(values, Column.grow(values.length, size + 1));
+        System.arraycopy(values, i, values, i + 1, size - i);
+        values[i] = ((FloatData) d).getValue();
+        size++;
+      }
+
+      void remove(int i) {
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        size--;
+      }
+
+      ListStore copy() {
+        Floats res = new Floats();
+        res.values = Arrays.copyOf(values, size);
+        res.size = size;
+        return res;
+      }
+
+      void append(ListStore other) {
+        Floats o = (Floats) other;
+        if (size + o.size > values.length) values = Arrays.copyOf(values, Column.grow(values.length, size + o.size));
+        System.arraycopy(o.values, 0, values, size, o.size);
+        size += o.size;
+      }
+
+      void shuffle(Random random) {
+        permute(random);
+      }
+
+      void swap(int i, int j) {
+        double v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+      }
+
+      int indexOf(Data d) {
+        if (!(d instanceof FloatData)) return -1;
+        double v = ((FloatData) d).getValue();
+        for (int i = 0; i < size; i++) {
+          if (values[i] == v) return i;
+        }
+        return -1;
+      }
+
+      int hash(int i) {
+        return Double.hashCode(values[i]);
+      }
+
+      double sum() {
+        double res = 0;
+        for (int i = 0; i < size; i++) res += values[i];
+        return res;
+      }
+    }
+
+    /** Boolean elements stored in a bit set. */
+    static final class Booleans extends ListStore {
+
+      private BitSet values = new BitSet();
+
+      Data get(int i) {
+        return new BooleanData(values.get(i));
+      }
+
+      boolean accepts(Data d) {
+        return d instanceof BooleanData;
+      }
+
+      void set(int i, Data d) {
+        values.set(i, ((BooleanData) d).getValue());
+      }
+
+      void insert(int i, Data d) {
+        for (int j = size; j > i; j--) values.set(j, values.get(j - 1));
+        values.set(i, ((BooleanData) d).getValue());
+        size++;
+      }
+
+      void remove(int i) {
+        for (int j = i; j < size - 1; j++) values.set(j, values.get(j + 1));
+        values.clear(--size);
+      }
+
+      ListStore copy() {
+        Booleans res = new Booleans();
+        res.values = (BitSet) values.clone();
+        res.size = size;
+        return res;
+      }
+
+      void append(ListStore other) {
+        Booleans o = (Booleans) other;
+        for (int i = o.values.nextSetBit(0); i >= 0 && i < o.size; i = o.values.nextSetBit(i + 1)) {
+          values.set(size + i);
+        }
+        size += o.size;
+      }
+
+      void shuffle(Random random) {
+        permute(random);
+      }
+
+      void swap(int i, int j) {
+        boolean v = values.get(i);
+        values.set(i, values.get(j));
+        values.set(j, v);
+      }
+    }
+
+    /** String elements stored in a String array. */
+    static final class Strings extends ListStore {
+
+      private String[] values = new String[0];
+
+      Data get(int i) {
+        return new StringData(values[i]);
+      }
+
+      boolean accepts(Data d) {
+        return d instanceof StringData;
+      }
+
+      void set(int i, Data d) {
+        values[i] = ((StringData) d).getValue();
+      }
+
+      void insert(int i, Data d) {
+        if (size == values.length) values = Arrays.copyOf(values, Column.grow(values.length, size + 1));
+        System.arraycopy(values, i, values, i + 1, size - i);
+        values[i] = ((StringData) d).getValue();
+        size++;
+      }
+
+      void remove(int i) {
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        values[--size] = null;
+      }
+
+      ListStore copy() {
+        Strings res = new Strings();
+        res.values = Arrays.copyOf(values, size);
+        res.size = size;
+        return res;
+      }
+
+      void append(ListStore other) {
+        Strings o = (Strings) other;
+        if (size + o.size > values.length) values = Arrays.copyOf(values, Column.grow(values.length, size + o.size));
+        System.arraycopy(o.values, 0, values, size, o.size);
+        size += o.size;
+      }
+
+      void shuffle(Random random) {
+        permute(random);
+      }
+
+      void swap(int i, int j) {
+        String v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+      }
+
+      int indexOf(Data d) {
+        if (!(d instanceof StringData)) return -1;
+        String v = ((StringData) d).getValue();
+        for (int i = 0; i < size; i++) {
+          if (values[i].equals(v)) return i;
+        }
+        return -1;
+      }
+
+      int hash(int i) {
+        return values[i].hashCode();
+      }
+    }
+}
@@ -0,0 +1,118 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Calls in the condition of a loop whose value does not change while
+ * the loop is executed (e.g. num_rows(t) in while (i < num_rows(t))),
+ * so they are evaluated once per execution of the loop. They are the
+ * calls to pure special functions (see {@link SpecialFunc#isPure}) whose
+ * arguments are literals or variables that the body cannot modify: the
+ * variables are not assigned, read or used as the variable of a for
+ * loop, nor passed to special functions that modify their arguments or
+ * by reference to user functions.
+ *
+ * The conditions with side effects are not considered.
+ */
+
+public class LoopInvariants {
+
+    private final ArrayList<AslTree> calls = new ArrayList<AslTree>();
+
+    private LoopInvariants() {}
+
+    /**
+     * Returns the invariant calls of the condition of a loop, or null
+     * if there are none.
+     * @param cond The condition of the loop.
+     * @param body The instructions executed in each iteration.
+     */
+    public static LoopInvariants of(Program program, AslTree cond, AslTree body) {
+        if (program.getSideEffects().hasSideEffects(cond)) return null;
+        HashSet<String> modified = new HashSet<String>();
+        modifiedVariables(program, body, modified);
+        LoopInvariants res = new LoopInvariants();
+        res.collect(cond, modified);
+        return res.calls.isEmpty() ? null : res;
+    }
+
+    /** Returns the invariant calls. */
+    public ArrayList<AslTree> calls() {
+        return calls;
+    }
+
+    /** Collects the outermost invariant calls of an expression. */
+    private void collect(AslTree t, HashSet<String> modified) {
+        if (t.getType() == AslLexer.FUNCALL && isInvariant(t, modified)) {
+            calls.add(t);
+            return;
+        }
+        for (int i = 0; i < t.getChildCount(); ++i) collect(t.getChild(i), modified);
+    }
+
+    private static boolean isInvariant(AslTree call, HashSet<String> modified) {
+        FuncFactory factory = FuncFactory.getinstance();
+        String fname = call.getChild(0).getText();
+        if (!factory.contains(fname) || !factory.getFunction(fname).isPure()) return false;
+        AslTree args = call.getChild(1);
+        int n = args == null ? 0 : args.getChildCount();
+        for (int i = 0; i < n; ++i) {
+            AslTree a = args.getChild(i);
+            switch (a.getType()) {
+                case AslLexer.INT:
+                case AslLexer.FLOAT:
+                case AslLexer.STRING:
+                case AslLexer.BOOLEAN:
+                    break;
+                case AslLexer.ID:
+                    if (modified.contains(a.getText())) return false;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /** Collects the variables that the execution of the tree may modify. */
+    private static void modifiedVariables(Program program, AslTree t, HashSet<String> res) {
+        switch (t.getType()) {
+            case AslLexer.ASSIGN: {
+                AslTree target = t.getChild(0);
+                if (target.getType() == AslLexer.ACCESS) target = target.getChild(0);
+                res.add(target.getText());
+                break;
+            }
+            case AslLexer.READ:
+            case AslLexer.FOR:
+                res.add(t.getChild(0).getText());
+                break;
+            case AslLexer.FUNCALL: {
+                String fname = t.getChild(0).getText();
+                AslTree args = t.getChild(1);
+                int n = args == null ? 0 : args.getChildCount();
+                FuncFactory factory = FuncFactory.getinstance();
+                AslTree f = program.getFunction(fname);
+                for (int i = 0; i < n; ++i) {
+                    AslTree a = args.getChild(i);
+                    if (a.getType() != AslLexer.ID) continue;
+                    boolean byReference;
+                    if (factory.contains(fname)) {
+                        byReference = factory.getFunction(fname).modifiesArguments();
+                    } else {
+                        // Unknown functions raise an error when called
+                        byReference = f != null && i < f.getChild(1).getChildCount()
+                            && f.getChild(1).getChild(i).getType() == AslLexer.PREF;
+                    }
+                    if (byReference) res.add(a.getText());
+                }
+                break;
+            }
+            default: break;
+        }
+        for (int i = 0; i < t.getChildCount(); ++i) modifiedVariables(program, t.getChild(i), res);
+    }
+}
@@ -0,0 +1,75 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of the calls to pure user functions (see {@link SideEffects#isPure})
+ * indexed by the function and the values of the arguments, so recursive
+ * functions that repeat calls (e.g. a naive Fibonacci) do each one once.
+ * Only the calls whose arguments and result are Integer, Float, Boolean,
+ * String or Void are memoized: building the keys of lists, dictionaries
+ * and tables would cost as much as the calls, and storing their results
+ * would keep large data alive.
+ *
+ * The number of results is bounded; the least recently used ones are
+ * discarded. The results are copied when they are stored and returned,
+ * so the callers can modify them.
+ */
+
+public class Memo {
+
+    /** Maximum number of results. */
+    private static final int CAPACITY = 1 << 16;
+
+    private final LinkedHashMap<ArrayList<Object>,Data> results =
+        new LinkedHashMap<ArrayList<Object>,Data>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<ArrayList<Object>,Data> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+
+    /** Value of the void arguments in the keys. */
+    private static final Object VOID = new Object();
+
+    /**
+     * Returns the key of a call, or null if it cannot be memoized. The key
+     * does not refer to the arguments, which may be modified by the call.
+     */
+    public static ArrayList<Object> key(AslTree f, ArrayList<Data> args) {
+        ArrayList<Object> res = new ArrayList<Object>(args.size() + 1);
+        res.add(f);
+        for (Data d : args) {
+            Object k = value(d);
+            if (k == null) return null;
+            res.add(k);
+        }
+        return res;
+    }
+
+    /** Returns an immutable value equal for equal data (null for containers). */
+    private static Object value(Data d) {
+        if (d instanceof IntegerData) return ((IntegerData) d).getValue();
+        if (d instanceof FloatData) return ((FloatData) d).getValue();
+        if (d instanceof BooleanData) return ((BooleanData) d).getValue();
+        if (d instanceof StringData) return ((StringData) d).getValue();
+        if (d instanceof VoidData) return VOID;
+        return null;
+    }
+
+    /** Returns a copy of the result of the call, or null if it is not stored. */
+    public Data get(ArrayList<Object> key) {
+        Data res = results.get(key);
+        if (Metrics.enabled) Metrics.count(res == null ? "memo.misses" : "memo.hits", 1);
+        return res == null ? null : res.deepClone();
+    }
+
+    /** Stores a copy of the result of a call (only if it is not a container). */
+    public void put(ArrayList<Object> key, Data result) {
+        if (value(result) == null) return;
+        results.put(key, result.deepClone());
+    }
+}
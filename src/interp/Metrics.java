@@ -0,0 +1,237 @@
+package interp;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Counters and histograms of the operations on tables (rows scanned and
+ * produced by from blocks, copied cells, bytes read by read_file, time
+ * of the special functions, ...). The metrics are shared by all the
+ * interpreters of the process and can be updated concurrently.
+ *
+ * The metrics are disabled by default. The instrumented code checks
+ * {@link #enabled} before computing anything, so the cost of the
+ * instrumentation is a field read per operation when disabled.
+ */
+
+public final class Metrics {
+
+    /** Flag indicating whether the metrics are collected. */
+    public static volatile boolean enabled = false;
+
+    private static final ConcurrentHashMap<String,LongAdder> counters =
+        new ConcurrentHashMap<String,LongAdder>();
+
+    private static final ConcurrentHashMap<String,Histogram> histograms =
+        new ConcurrentHashMap<String,Histogram>();
+
+    private Metrics() {}
+
+    /**
+     * Histogram of non-negative values with buckets of powers of two.
+     * Percentiles are approximated by the upper bound of the bucket.
+     */
+    private static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final AtomicLong max = new AtomicLong(0);
+
+        void record(long v) {
+            if (v < 0) v = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+            count.increment();
+            sum.add(v);
+            long m;
+            while (v > (m = max.get()) && !max.compareAndSet(m, v));
+        }
+
+        /** Returns an upper bound of the value at the given quantile. */
+        long percentile(double q) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < 64; ++i) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+            }
+            return max.get();
+        }
+
+        TreeMap<String,Long> summary() {
+            TreeMap<String,Long> res = new TreeMap<String,Long>();
+            long n = count.sum();
+            res.put("count", n);
+            res.put("sum", sum.sum());
+            res.put("mean", n == 0 ? 0 : sum.sum() / n);
+            res.put("p50", percentile(0.5));
+            res.put("p99", percentile(0.99));
+            res.put("max", max.get());
+            return res;
+        }
+    }
+
+    /** Adds a value to a counter. */
+    public static void count(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    /** Records a value (e.g. elapsed nanoseconds) in a histogram. */
+    public static void record(String name, long value) {
+        histograms.computeIfAbsent(name, k -> new Histogram()).record(value);
+    }
+
+    /** Removes all the collected values. */
+    public static void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /** Returns the values of the counters, sorted by name. */
+    private static TreeMap<String,Long> counterValues() {
+        TreeMap<String,Long> res = new TreeMap<String,Long>();
+        for (Map.Entry<String,LongAdder> e : counters.entrySet()) res.put(e.getKey(), e.getValue().sum());
+        return res;
+    }
+
+    private static TreeMap<String,TreeMap<String,Long>> histogramValues() {
+        TreeMap<String,TreeMap<String,Long>> res = new TreeMap<String,TreeMap<String,Long>>();
+        for (Map.Entry<String,Histogram> e : histograms.entrySet()) res.put(e.getKey(), e.getValue().summary());
+        return res;
+    }
+
+    /**
+     * Returns the metrics as a dictionary. Counters are integers and
+     * histograms are dictionaries with count, sum, mean, p50, p99 and max.
+     */
+    public static DictData toData() {
+        DictData res = new DictData();
+        for (Map.Entry<String,Long> e : counterValues().entrySet()) {
+            res.put(e.getKey(), IntegerData.valueOf(e.getValue()));
+        }
+        for (Map.Entry<String,TreeMap<String,Long>> e : histogramValues().entrySet()) {
+            DictData h = new DictData();
+            for (Map.Entry<String,Long> v : e.getValue().entrySet()) h.put(v.getKey(), IntegerData.valueOf(v.getValue()));
+            res.put(e.getKey(), h);
+        }
+        return res;
+    }
+
+    /** Returns the metrics in JSON format. */
+    public static String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"counters\": {");
+        String sep = "\n";
+        for (Map.Entry<String,Long> e : counterValues().entrySet()) {
+            sb.append(sep).append("    \"").append(e.getKey()).append("\": ").append(e.getValue());
+            sep = ",\n";
+        }
+        sb.append("\n  },\n  \"histograms\": {");
+        sep = "\n";
+        for (Map.Entry<String,TreeMap<String,Long>> e : histogramValues().entrySet()) {
+            sb.append(sep).append("    \"").append(e.getKey()).append("\": {");
+            String sep2 = "";
+            for (Map.Entry<String,Long> v : e.getValue().entrySet()) {
+                sb.append(sep2).append('"').append(v.getKey()).append("\": ").append(v.getValue());
+                sep2 = ", ";
+            }
+            sb.append('}');
+            sep = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    /** Enables the metrics and writes them in JSON format when the JVM exits. */
+    public static void dumpAtExit(final String filename) {
+        enabled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (Writer w = new FileWriter(filename)) {
+                w.write(toJson());
+            } catch (IOException e) {
+                System.err.println("Error: metrics could not be written in " + filename + ".");
+            }
+        }));
+    }
+
+    /**
+     * Enables the metrics and publishes them as the attributes of the
+     * MBean mojo:type=Metrics. Histograms are published as one attribute
+     * per value (e.g. read_file.nanos.p99).
+     */
+    public static void registerMBean() {
+        enabled = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new MetricsBean(), new ObjectName("mojo:type=Metrics"));
+        } catch (JMException e) {
+            throw new RuntimeException("metrics could not be registered in JMX: " + e.getMessage());
+        }
+    }
+
+    /** MBean with an attribute for each counter and histogram value. */
+    private static class MetricsBean implements DynamicMBean {
+
+        private static TreeMap<String,Long> values() {
+            TreeMap<String,Long> res = counterValues();
+            for (Map.Entry<String,TreeMap<String,Long>> e : histogramValues().entrySet()) {
+                for (Map.Entry<String,Long> v : e.getValue().entrySet()) {
+                    res.put(e.getKey() + "." + v.getKey(), v.getValue());
+                }
+            }
+            return res;
+        }
+
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            Long v = values().get(name);
+            if (v == null) throw new AttributeNotFoundException(name);
+            return v;
+        }
+
+        public AttributeList getAttributes(String[] names) {
+            TreeMap<String,Long> values = values();
+            AttributeList res = new AttributeList();
+            for (String name : names) {
+                if (values.containsKey(name)) res.add(new Attribute(name, values.get(name)));
+            }
+            return res;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("metrics are read-only");
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            if (action.equals("reset")) {
+                reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            ArrayList<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
+            for (String name : values().keySet()) {
+                attrs.add(new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Removes all the collected values",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(Metrics.class.getName(), "MoJo table metrics",
+                attrs.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[] {reset}, null);
+        }
+    }
+}
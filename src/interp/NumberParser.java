@@ -0,0 +1,126 @@
+package interp;
+
+/**
+ * Parser of numeric literals used when loading files. It works on a
+ * range of characters without creating intermediate strings or
+ * matching regular expressions. Accepted numbers have an optional sign,
+ * digits with an optional decimal point and an optional exponent.
+ */
+
+public final class NumberParser {
+
+    /** Results of scan. */
+    public static final int NONE = 0;
+    public static final int INTEGER = 1;
+    public static final int FLOAT = 2;
+
+    /** Powers of ten that are exactly representable as doubles. */
+    private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private NumberParser() {}
+
+    private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Checks whether the characters in [start,end) form a number.
+     * @return NONE, INTEGER or FLOAT.
+     */
+    public static int scan(CharSequence s, int start, int end) {
+      int i = start;
+      if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) i++;
+      int digits = 0;
+      while (i < end && isDigit(s.charAt(i))) { i++; digits++; }
+      int kind = INTEGER;
+      if (i < end && s.charAt(i) == '.') {
+        kind = FLOAT;
+        i++;
+        while (i < end && isDigit(s.charAt(i))) { i++; digits++; }
+      }
+      if (digits == 0) return NONE;
+      if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+        kind = FLOAT;
+        i++;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) i++;
+        int expDigits = 0;
+        while (i < end && isDigit(s.charAt(i))) { i++; expDigits++; }
+        if (expDigits == 0) return NONE;
+      }
+      return i == end ? kind : NONE;
+    }
+
+    /**
+     * Parses an integer previously accepted by scan. It raises an
+     * exception if the value does not fit in a long.
+     */
+    public static long parseLong(CharSequence s, int start, int end) {
+      int i = start;
+      boolean negative = false;
+      if (s.charAt(i) == '-' || s.charAt(i) == '+') negative = s.charAt(i++) == '-';
+      long res = 0;
+      for (; i < end; i++) {
+        int digit = s.charAt(i) - '0';
+        // Accumulated as a negative number to reach Long.MIN_VALUE
+        if (res < (Long.MIN_VALUE + digit) / 10)
+          throw new NumberFormatException("Integer out of range: " + s.subSequence(start, end));
+        res = res*10 - digit;
+      }
+      if (negative) return res;
+      if (res == Long.MIN_VALUE)
+        throw new NumberFormatException("Integer out of range: " + s.subSequence(start, end));
+      return -res;
+    }
+
+    /**
+     * Parses a number previously accepted by scan. Numbers with at most
+     * 15 significant digits and a small exponent are converted exactly
+     * without allocations; the rest use Double.parseDouble.
+     */
+    public static double parseDouble(CharSequence s, int start, int end) {
+      int i = start;
+      boolean negative = false;
+      if (s.charAt(i) == '-' || s.charAt(i) == '+') negative = s.charAt(i++) == '-';
+      long mantissa = 0;
+      int significant = 0;
+      int exponent = 0;
+      boolean fraction = false;
+      for (; i < end; i++) {
+        char c = s.charAt(i);
+        if (c == '.') { fraction = true; continue; }
+        if (!isDigit(c)) break;
+        if (mantissa == 0 && c == '0') {
+          if (fraction) exponent--;
+          continue;
+        }
+        if (significant == 15) return slowParse(s, start, end);
+        mantissa = mantissa*10 + (c - '0');
+        significant++;
+        if (fraction) exponent--;
+      }
+      if (i < end) {
+        i++; // 'e' or 'E'
+        boolean negExp = false;
+        if (s.charAt(i) == '-' || s.charAt(i) == '+') negExp = s.charAt(i++) == '-';
+        int e = 0;
+        for (; i < end; i++) {
+          if (e > 1000) return slowParse(s, start, end);
+          e = e*10 + (s.charAt(i) - '0');
+        }
+        exponent += negExp ? -e : e;
+      }
+      double res;
+      if (mantissa == 0) res = 0.0;
+      else if (exponent >= 0 && exponent < POW10.length) res = mantissa * POW10[exponent];
+      else if (exponent < 0 && -exponent < POW10.length) res = mantissa / POW10[-exponent];
+      else return slowParse(s, start, end);
+      return negative ? -res : res;
+    }
+
+    private static double slowParse(CharSequence s, int start, int end) {
+      return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+}
@@ -0,0 +1,215 @@
+package interp;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Profiler of the execution of a program. The interpreter notifies the
+ * beginning of each statement and the entry and exit of user functions,
+ * special functions and from blocks. The time and the memory allocated
+ * by the thread between two notifications are charged to the current
+ * line and to the current stack of frames, so the cost of the profile
+ * is a couple of counter reads per statement.
+ *
+ * The profile is written as a flat profile (per frame and per line) and
+ * as a file of collapsed stacks ("main;f;read_file 1234", in
+ * microseconds) that can be read by the flame graph tools.
+ */
+
+public class Profiler {
+
+    /** Kinds of frames. */
+    public static final String FUNCTION = "Functions";
+    public static final String SPECIAL = "Special functions";
+    public static final String FROM = "From blocks";
+
+    /** Statistics of a frame (function, special function or from block). */
+    private static class FrameStats {
+        String kind;
+        String name;
+        long calls = 0;
+        long totalTime = 0, selfTime = 0;
+        long totalAlloc = 0, selfAlloc = 0;
+        /** Number of activations of the frame in the stack. */
+        int active = 0;
+
+        FrameStats(String kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+    }
+
+    /** Statistics of a line of the program. */
+    private static class LineStats {
+        long count = 0;
+        long time = 0;
+        long alloc = 0;
+    }
+
+    /** Activation of a frame in the stack. */
+    private static class Activation {
+        FrameStats frame;
+        /** Collapsed stack up to this frame. */
+        String stack;
+        /** Line being executed when the frame was entered. */
+        LineStats line;
+        long startTime, startAlloc;
+    }
+
+    private final HashMap<String,FrameStats> frames = new HashMap<String,FrameStats>();
+    private final HashMap<String,LineStats> lines = new HashMap<String,LineStats>();
+    private final HashMap<String,long[]> stacks = new HashMap<String,long[]>();
+    private final ArrayList<Activation> stack = new ArrayList<Activation>();
+
+    /** Counter of allocated memory (null if not supported by the JVM). */
+    private final com.sun.management.ThreadMXBean threads;
+
+    private final long startTime, startAlloc;
+    private long lastTime, lastAlloc;
+    private LineStats currentLine = null;
+
+    public Profiler() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            threads = null;
+        }
+        startTime = lastTime = System.nanoTime();
+        startAlloc = lastAlloc = allocated();
+    }
+
+    private long allocated() {
+        return threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /** Charges the cost since the previous notification. */
+    private void mark() {
+        long now = System.nanoTime();
+        long alloc = allocated();
+        long dt = now - lastTime;
+        long da = alloc - lastAlloc;
+        lastTime = now;
+        lastAlloc = alloc;
+        if (currentLine != null) {
+            currentLine.time += dt;
+            currentLine.alloc += da;
+        }
+        if (!stack.isEmpty()) {
+            Activation a = stack.get(stack.size() - 1);
+            a.frame.selfTime += dt;
+            a.frame.selfAlloc += da;
+            long[] s = stacks.get(a.stack);
+            if (s == null) stacks.put(a.stack, s = new long[1]);
+            s[0] += dt;
+        }
+    }
+
+    /** Notifies the beginning of a statement. */
+    public void line(String file, int line) {
+        mark();
+        String key = (file == null ? "" : file) + ":" + line;
+        LineStats l = lines.get(key);
+        if (l == null) lines.put(key, l = new LineStats());
+        l.count++;
+        currentLine = l;
+    }
+
+    /** Notifies the entry to a frame of the given kind. */
+    public void enter(String kind, String name) {
+        mark();
+        String key = kind + "\0" + name;
+        FrameStats f = frames.get(key);
+        if (f == null) frames.put(key, f = new FrameStats(kind, name));
+        f.calls++;
+        f.active++;
+        Activation a = new Activation();
+        a.frame = f;
+        a.stack = stack.isEmpty() ? name : stack.get(stack.size() - 1).stack + ";" + name;
+        a.line = currentLine;
+        a.startTime = lastTime;
+        a.startAlloc = lastAlloc;
+        stack.add(a);
+    }
+
+    /** Notifies the exit of the last entered frame. */
+    public void exit() {
+        mark();
+        Activation a = stack.remove(stack.size() - 1);
+        // Recursive activations are only counted once in the total
+        if (--a.frame.active == 0) {
+            a.frame.totalTime += lastTime - a.startTime;
+            a.frame.totalAlloc += lastAlloc - a.startAlloc;
+        }
+        currentLine = a.line;
+    }
+
+    /** Exits the frames that are still active (e.g. after an error). */
+    public void finish() {
+        while (!stack.isEmpty()) exit();
+    }
+
+    /**
+     * Writes the flat profile in a file and the collapsed stacks in
+     * the same file with the extension .folded.
+     */
+    public void write(String filename) throws IOException {
+        finish();
+        try (PrintWriter out = new PrintWriter(new FileWriter(filename))) {
+            writeFlat(out);
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(filename + ".folded"))) {
+            for (Map.Entry<String,long[]> e : stacks.entrySet()) {
+                long micros = e.getValue()[0] / 1000;
+                if (micros > 0) out.println(e.getKey() + " " + micros);
+            }
+        }
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    private static String mb(long bytes) {
+        return String.format("%.3f", bytes / (1024.0 * 1024.0));
+    }
+
+    private void writeFlat(PrintWriter out) {
+        long total = lastTime - startTime;
+        out.println("Total time: " + ms(total) + " ms");
+        if (threads != null) out.println("Total allocated: " + mb(lastAlloc - startAlloc) + " MB");
+        String[] kinds = {FUNCTION, SPECIAL, FROM};
+        for (String kind : kinds) {
+            ArrayList<FrameStats> list = new ArrayList<FrameStats>();
+            for (FrameStats f : frames.values()) if (f.kind.equals(kind)) list.add(f);
+            if (list.isEmpty()) continue;
+            Collections.sort(list, (a, b) -> Long.compare(b.selfTime, a.selfTime));
+            out.println();
+            out.println(kind);
+            out.println(String.format("%10s %12s %12s %7s %12s %12s  %s",
+                "calls", "self ms", "total ms", "self %", "self MB", "total MB", "name"));
+            for (FrameStats f : list) {
+                out.println(String.format("%10d %12s %12s %7.2f %12s %12s  %s",
+                    f.calls, ms(f.selfTime), ms(f.totalTime),
+                    total == 0 ? 0.0 : 100.0 * f.selfTime / total,
+                    mb(f.selfAlloc), mb(f.totalAlloc), f.name));
+            }
+        }
+        ArrayList<Map.Entry<String,LineStats>> list = new ArrayList<Map.Entry<String,LineStats>>(lines.entrySet());
+        Collections.sort(list, (a, b) -> Long.compare(b.getValue().time, a.getValue().time));
+        out.println();
+        out.println("Lines");
+        out.println(String.format("%10s %12s %7s %12s  %s", "count", "self ms", "self %", "self MB", "line"));
+        for (Map.Entry<String,LineStats> e : list) {
+            LineStats l = e.getValue();
+            out.println(String.format("%10d %12s %7.2f %12s  %s",
+                l.count, ms(l.time), total == 0 ? 0.0 : 100.0 * l.time / total,
+                mb(l.alloc), e.getKey()));
+        }
+    }
+}
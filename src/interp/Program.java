@@ -0,0 +1,176 @@
+package interp;
+
+// Imports for ANTLR
+import org.antlr.runtime.*;
+
+import parser.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsed and pre-processed program. The functions and the results of
+ * the analyses are not modified after its creation, so it can be shared
+ * by several interpreters running concurrently. The nodes of the AST
+ * also hold caches filled while the program runs, which follow the
+ * rules described in {@link AslTree}. Programs read from files are
+ * cached and reused as long as the file is not modified.
+ */
+
+public class Program {
+
+    /** Cache of programs indexed by the canonical path of the file. */
+    private static final ConcurrentHashMap<String,Program> cache =
+        new ConcurrentHashMap<String,Program>();
+
+    /** Name of the file of the program. */
+    private final String name;
+
+    /** Modification time and size of the file when it was parsed. */
+    private final long modified;
+    private final long length;
+
+    /** Root of the AST. */
+    private final AslTree tree;
+
+    /** Map between function names and the ASTs of the functions. */
+    private final HashMap<String,AslTree> functions;
+
+    /** Detection of side effects in the program. */
+    private final SideEffects effects;
+
+    /**
+     * Creates a program from an AST. It creates the map of functions
+     * and pre-processes the literals of the tree.
+     */
+    public Program(AslTree T, String filename) {
+        this(T, filename, 0, 0);
+    }
+
+    private Program(AslTree T, String filename, long mtime, long size) {
+        assert T != null;
+        name = filename;
+        modified = mtime;
+        length = size;
+        tree = T;
+        functions = MapFunctions(T);
+        PreProcessAST(T);
+        effects = new SideEffects(functions);
+        TypeInference.annotate(functions);
+    }
+
+    public String getName() { return name; }
+
+    public AslTree getTree() { return tree; }
+
+    /** Returns the AST of a function (null if it does not exist). */
+    public AslTree getFunction(String fname) { return functions.get(fname); }
+
+    public Map<String,AslTree> getFunctions() {
+        return Collections.unmodifiableMap(functions);
+    }
+
+    public SideEffects getSideEffects() { return effects; }
+
+    /**
+     * Returns the program stored in a file. The program is parsed only
+     * if it is not in the cache or the file has changed since it was
+     * parsed.
+     */
+    public static Program load(String filename) {
+        File file = new File(filename);
+        String key;
+        try {
+            key = file.getCanonicalPath();
+        } catch (IOException e) {
+            key = file.getAbsolutePath();
+        }
+        long mtime = file.lastModified();
+        long size = file.length();
+        Program p = cache.get(key);
+        if (p != null && p.modified == mtime && p.length == size) return p;
+        p = parse(filename, mtime, size);
+        cache.put(key, p);
+        return p;
+    }
+
+    /** Parses a file without using the cache. */
+    public static Program parse(String filename) {
+        File file = new File(filename);
+        return parse(filename, file.lastModified(), file.length());
+    }
+
+    private static Program parse(String filename, long mtime, long size) {
+        CharStream input = null;
+        try {
+            input = new ANTLRFileStream(filename);
+        } catch (IOException e) {
+            throw new RuntimeException("file " + filename + " could not be opened");
+        }
+
+        // Creates the lexer
+        AslLexer lex = new AslLexer(input);
+        CommonTokenStream tokens = new CommonTokenStream(lex);
+
+        // Creates and runs the parser. As a result, an AST is created
+        AslParser parser = new AslParser(tokens);
+        AslTreeAdaptor adaptor = new AslTreeAdaptor();
+        parser.setTreeAdaptor(adaptor);
+        AslParser.prog_return result = null;
+        try {
+            result = parser.prog();
+        } catch (Exception e) {} // Just catch the exception (nothing to do)
+
+        // Check for parsing errors
+        int nerrors = parser.getNumberOfSyntaxErrors();
+        if (nerrors == 0 && result == null) nerrors = 1;
+        if (nerrors > 0) {
+            throw new RuntimeException(nerrors + " errors detected in " + filename +
+                                       ". The program has not been executed");
+        }
+
+        return new Program((AslTree) result.getTree(), filename, mtime, size);
+    }
+
+    /**
+     * Gathers information from the AST and creates the map from
+     * function names to the corresponding AST nodes.
+     */
+    private static HashMap<String,AslTree> MapFunctions(AslTree T) {
+        assert T != null && T.getType() == AslLexer.LIST_FUNCTIONS;
+        HashMap<String,AslTree> FuncName2Tree = new HashMap<String,AslTree> ();
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) {
+            AslTree f = T.getChild(i);
+            assert f.getType() == AslLexer.FUNC;
+            String fname = f.getChild(0).getText();
+            if (FuncName2Tree.containsKey(fname)) {
+                throw new RuntimeException("Multiple definitions of function " + fname);
+            }
+            FuncName2Tree.put(fname, f);
+        }
+        return FuncName2Tree;
+    }
+
+    /**
+     * Performs some pre-processing on the AST. Basically, it
+     * calculates the value of the literals and stores a simpler
+     * representation. See AslTree.java for details.
+     */
+    private static void PreProcessAST(AslTree T) {
+        if (T == null) return;
+        switch(T.getType()) {
+            case AslLexer.INT: T.setIntValue(); break;
+            case AslLexer.FLOAT: T.setFloatValue(); break;
+            case AslLexer.STRING: T.setStringValue(); break;
+            case AslLexer.BOOLEAN: T.setBooleanValue(); break;
+            default: break;
+        }
+        int n = T.getChildCount();
+        for (int i = 0; i < n; ++i) PreProcessAST(T.getChild(i));
+    }
+}
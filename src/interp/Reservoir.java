@@ -0,0 +1,91 @@
+package interp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Uniform sample of fixed size of a sequence of unknown length, taken in
+ * a single pass (reservoir sampling, algorithm L). After the reservoir
+ * is full, the number of items to skip until the next replacement is
+ * drawn directly, so the cost is O(n (1 + log(N/n))) random numbers for
+ * a sequence of N items and callers that can skip items cheaply (e.g.
+ * row indices) do not need to visit the skipped ones.
+ */
+
+public class Reservoir<T> {
+
+    private final ArrayList<T> items;
+    private final int capacity;
+    private final Random random;
+
+    /** Number of items seen (offered or skipped). */
+    private long seen = 0;
+
+    /** Position of the next item that enters the reservoir. */
+    private long next;
+
+    private double w;
+
+    public Reservoir(int capacity, Random random) {
+        if (capacity < 0) throw new RuntimeException("Sample size must be non-negative\n");
+        this.items = new ArrayList<T>(capacity);
+        this.capacity = capacity;
+        this.random = random;
+        this.next = capacity > 0 ? capacity - 1 : Long.MAX_VALUE;
+        if (capacity > 0) {
+            w = Math.exp(Math.log(uniform()) / capacity);
+            advance();
+        }
+    }
+
+    /** Returns a random number in (0, 1). */
+    private double uniform() {
+        double u;
+        do u = random.nextDouble(); while (u == 0.0);
+        return u;
+    }
+
+    private void advance() {
+        double skip = Math.floor(Math.log(uniform()) / Math.log1p(-w));
+        next = skip >= Long.MAX_VALUE - next ? Long.MAX_VALUE : next + (long) skip + 1;
+        w *= Math.exp(Math.log(uniform()) / capacity);
+    }
+
+    /** Returns the number of items that can be skipped before the next one that is kept. */
+    public long skippable() {
+        return seen < capacity ? 0 : next - seen;
+    }
+
+    /** Skips items that are not kept (at most {@link #skippable}). */
+    public void skip(long count) {
+        assert count <= skippable();
+        seen += count;
+    }
+
+    /** Offers the next item of the sequence. */
+    public void offer(T item) {
+        if (seen < capacity) {
+            items.add(item);
+        } else if (seen == next) {
+            items.set(random.nextInt(capacity), item);
+            advance();
+        }
+        seen++;
+    }
+
+    /** Returns the number of items seen. */
+    public long seen() {
+        return seen;
+    }
+
+    /**
+     * Returns the sampled items in random order. If fewer items than
+     * the capacity were seen, all of them are returned.
+     */
+    public ArrayList<T> items() {
+        ArrayList<T> res = new ArrayList<T>(items);
+        for (int i = res.size() - 1; i > 0; i--) Collections.swap(res, i, random.nextInt(i + 1));
+        return res;
+    }
+}
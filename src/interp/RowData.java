@@ -0,0 +1,62 @@
+package interp;
+
+/**
+ * Row of a table used as the variable of a for loop (for row in t). It
+ * is a cursor: the cells are read from the table when they are accessed
+ * and the loop moves it to the next row without copying anything. It
+ * behaves as the dictionary returned by t[i]: the first operation other
+ * than reading a cell (e.g. modifying it or using the row as a whole)
+ * copies the non-Void cells, so the table is never modified.
+ */
+
+public class RowData extends DictData {
+
+    private final TableData table;
+    private int row;
+    /** The cells of the current row have been copied to the dictionary. */
+    private boolean loaded = false;
+
+    public RowData(TableData table) {
+      this.table = table;
+    }
+
+    /** Moves the cursor to a row. */
+    public void moveTo(int row) {
+      this.row = row;
+      if (loaded) {
+        clear();
+        loaded = false;
+      }
+    }
+
+    public Data get(Data d) {
+      if (loaded) return super.get(d);
+      int pos = table.findColumn(StringData.cast(d));
+      if (pos < 0) return new VoidData();
+      Data res = table.getColumn(pos).get(row);
+      // Containers can be modified in place through the result
+      if (res instanceof ListData || res instanceof DictData) res = res.deepClone();
+      return res;
+    }
+
+    public Data get(StringData key, AslTree node) {
+      return loaded ? super.get(key, node) : get(key);
+    }
+
+    protected Shape shape() {
+      if (!loaded) {
+        loaded = true;
+        ListData<StringData> labels = table.getColumnNames();
+        for (int j=0; j<table.width(); j++) {
+          Column c = table.getColumn(j);
+          if (!c.isVoid(row)) set(labels.get(j), c.get(row).deepClone());
+        }
+      }
+      return super.shape();
+    }
+
+    public void setValue(Data d) {
+      loaded = true;
+      super.setValue(d);
+    }
+}
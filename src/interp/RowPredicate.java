@@ -0,0 +1,7 @@
+package interp;
+
+/** Condition on the rows of a table (see {@link ExprCompiler}). */
+
+public interface RowPredicate {
+    boolean test(int row);
+}
@@ -0,0 +1,173 @@
+package interp;
+
+import parser.*;
+
+import java.util.ArrayList;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Conditions of a from block that can be checked while a CSV file is
+ * read, so the rejected rows are never stored in the table. They are
+ * taken from the leading select actions of the block: the longest
+ * prefix of each conjunction (a and b and ...) formed by comparisons
+ * of a column with a literal (:"col" op const or const op :"col").
+ *
+ * The conditions are evaluated with the values that the cells would
+ * have in the table, so the result (and the errors) are the same as
+ * those of the select actions. Only the field of the compared column
+ * is parsed for each record.
+ */
+
+public class ScanFilter {
+
+    /** Comparison of a column with a constant. */
+    private static class Condition {
+        int op;
+        AslTree column;     // Name of the column (STRING or INT node)
+        Data constant;
+        boolean reversed;   // The constant is the left operand
+        int pos;            // Position of the column in the file
+
+        public String toString() {
+            String col = ":" + column.getText();
+            String c = constant instanceof StringData ? "\"" + ((StringData) constant).getValue() + "\"" : constant.toString();
+            return reversed ? c + " " + opText(op) + " " + col : col + " " + opText(op) + " " + c;
+        }
+    }
+
+    private final ArrayList<Condition> conditions = new ArrayList<Condition>();
+
+    /** Number of leading actions of the block fully checked by the filter. */
+    private int pushed = 0;
+
+    private ScanFilter() {}
+
+    /**
+     * Returns the filter of the leading select actions of a from block,
+     * or null if none of their conditions can be checked while reading.
+     */
+    public static ScanFilter of(AslTree actions) {
+        assert actions.getType() == AslLexer.FROM_ACTIONS;
+        ScanFilter res = new ScanFilter();
+        for (int i = 0; i < actions.getChildCount(); ++i) {
+            AslTree action = actions.getChild(i);
+            if (action.getType() != AslLexer.SELECT) break;
+            ArrayList<AslTree> conjuncts = new ArrayList<AslTree>();
+            conjuncts(action.getChild(0), conjuncts);
+            boolean all = true;
+            for (AslTree c : conjuncts) {
+                Condition cond = condition(c);
+                if (cond == null) {
+                    all = false;
+                    break;
+                }
+                res.conditions.add(cond);
+            }
+            // The action must be evaluated if part of it was not pushed
+            if (!all) break;
+            res.pushed++;
+        }
+        return res.conditions.isEmpty() ? null : res;
+    }
+
+    private static void conjuncts(AslTree t, ArrayList<AslTree> res) {
+        if (t.getType() == AslLexer.AND) {
+            conjuncts(t.getChild(0), res);
+            conjuncts(t.getChild(1), res);
+        } else {
+            res.add(t);
+        }
+    }
+
+    /** Returns the condition of a comparison, or null if it is not a simple one. */
+    private static Condition condition(AslTree t) {
+        int op = t.getType();
+        if (op != AslLexer.EQUAL && op != AslLexer.NOT_EQUAL && op != AslLexer.LT
+            && op != AslLexer.LE && op != AslLexer.GT && op != AslLexer.GE) return null;
+        Condition c = new Condition();
+        c.op = op;
+        AslTree a = t.getChild(0);
+        AslTree b = t.getChild(1);
+        if (b.getType() == AslLexer.COLUMN) {
+            AslTree aux = a;
+            a = b;
+            b = aux;
+            c.reversed = true;
+        }
+        if (a.getType() != AslLexer.COLUMN) return null;
+        int name = a.getChild(0).getType();
+        if (name != AslLexer.STRING && name != AslLexer.INT) return null;
+        c.column = a.getChild(0);
+        c.constant = literal(b);
+        if (c.constant == null) return null;
+        // Only numbers have an order
+        boolean equality = op == AslLexer.EQUAL || op == AslLexer.NOT_EQUAL;
+        if (!equality && !Data.isNumeric(c.constant)) return null;
+        return c;
+    }
+
+    private static Data literal(AslTree t) {
+        switch (t.getType()) {
+            case AslLexer.INT: return IntegerData.valueOf(t.getIntValue());
+            case AslLexer.FLOAT: return new FloatData(t.getFloatValue());
+            case AslLexer.STRING: return new StringData(t.getStringValue());
+            case AslLexer.BOOLEAN: return new BooleanData(t.getBooleanValue());
+            default: return null;
+        }
+    }
+
+    /** Returns the number of leading actions of the block checked by the filter. */
+    public int pushedActions() {
+        return pushed;
+    }
+
+    /**
+     * Finds the columns of the conditions in the header of the file.
+     * @return false if some column does not exist.
+     */
+    public boolean bind(TableData header) {
+        for (Condition c : conditions) {
+            if (c.column.getType() == AslLexer.STRING) {
+                c.pos = header.findColumn(new StringData(c.column.getStringValue()));
+            } else {
+                c.pos = c.column.getIntValue() < header.width() ? (int) c.column.getIntValue() : -1;
+            }
+            if (c.pos < 0) return false;
+        }
+        return true;
+    }
+
+    /** Checks whether a record satisfies all the conditions. */
+    public boolean accepts(CSVRecord record) {
+        for (Condition c : conditions) {
+            Data value = Data.parse(record.get(c.pos));
+            Data left = c.reversed ? c.constant : value;
+            Data right = c.reversed ? value : c.constant;
+            if (!Data.comparable(left, right)) {
+                throw new RuntimeException ("Incompatible types in relational expression");
+            }
+            if (!left.evaluateRelational(c.op, right).getValue()) return false;
+        }
+        return true;
+    }
+
+    private static String opText(int op) {
+        switch (op) {
+            case AslLexer.EQUAL: return "=";
+            case AslLexer.NOT_EQUAL: return "!=";
+            case AslLexer.LT: return "<";
+            case AslLexer.LE: return "<=";
+            case AslLexer.GT: return ">";
+            default: return ">=";
+        }
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Condition c : conditions) {
+            if (sb.length() > 0) sb.append(" and ");
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
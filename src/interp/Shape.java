@@ -0,0 +1,133 @@
+package interp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keys of a dictionary and the slots of their values (see {@link DictData}).
+ * The dictionaries with the same keys added in the same order share their
+ * shape, so each one only stores an array with the values. The shapes form
+ * a tree rooted at the empty shape: adding a key to a shape returns the
+ * same child shape every time.
+ *
+ * The dictionaries with many keys (e.g. used as maps) own an unshared
+ * shape that grows with them, so the tree only has small shapes.
+ */
+
+public final class Shape {
+
+    /** Maximum number of keys of the shared shapes. */
+    private static final int MAX_SHARED = 32;
+
+    /** Shape of the empty dictionaries. */
+    public static final Shape EMPTY = new Shape(new ArrayList<StringData>(), true);
+
+    /** Keys in the order of their slots. */
+    private final ArrayList<StringData> keys;
+
+    private final HashMap<StringData,Integer> slots;
+
+    /** Shapes with one more key (null for unshared shapes). */
+    private final HashMap<StringData,Shape> transitions;
+
+    private Shape(ArrayList<StringData> keys, boolean shared) {
+        this.keys = keys;
+        slots = new HashMap<StringData,Integer>(keys.size() * 2);
+        for (int i = 0; i < keys.size(); ++i) slots.put(keys.get(i), i);
+        transitions = shared ? new HashMap<StringData,Shape>() : null;
+    }
+
+    /**
+     * Inline cache of a key of the AST: the slot of the key in the last
+     * shape where it was looked up. It is immutable, so the interpreters
+     * that share the AST can replace it without synchronization.
+     */
+    public static final class Site {
+        final Shape shape;
+        final int slot;
+
+        Site(Shape shape, int slot) {
+            this.shape = shape;
+            this.slot = slot;
+        }
+    }
+
+    /** Returns the shape of the keys added in order to the empty dictionary. */
+    public static Shape of(ArrayList<StringData> keys) {
+        Shape res = EMPTY;
+        for (StringData key : keys) {
+            if (res.slot(key) < 0) res = res.with(key);
+        }
+        return res;
+    }
+
+    public boolean isShared() {
+        return transitions != null;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public StringData key(int slot) {
+        return keys.get(slot);
+    }
+
+    /** Returns the slot of a key, or -1 if it is not in the shape. */
+    public int slot(StringData key) {
+        Integer res = slots.get(key);
+        return res == null ? -1 : res;
+    }
+
+    /**
+     * Returns the slot of a key through the inline cache of a node. Only
+     * the shared shapes are cached, since the others grow.
+     */
+    public int slot(StringData key, AslTree node) {
+        if (transitions == null) return slot(key);
+        Site site = node.getSite();
+        if (site != null && site.shape == this) return site.slot;
+        int res = slot(key);
+        node.setSite(new Site(this, res));
+        return res;
+    }
+
+    /**
+     * Returns the shape with a new key in the next slot. Unshared shapes
+     * are extended in place.
+     */
+    public Shape with(StringData key) {
+        assert slot(key) < 0;
+        if (transitions == null) {
+            key = new StringData(key.getValue());
+            slots.put(key, keys.size());
+            keys.add(key);
+            return this;
+        }
+        synchronized (transitions) {
+            Shape res = transitions.get(key);
+            if (res == null) {
+                // The keys of the shapes are copies that are never modified
+                ArrayList<StringData> k = new ArrayList<StringData>(keys);
+                k.add(new StringData(key.getValue()));
+                res = new Shape(k, k.size() < MAX_SHARED);
+                // Unshared shapes belong to one dictionary
+                if (!res.isShared()) return res;
+                transitions.put(key, res);
+            }
+            return res;
+        }
+    }
+
+    /** Returns the shape without the key of a slot; the later slots move back. */
+    public Shape without(int slot) {
+        ArrayList<StringData> k = new ArrayList<StringData>(keys);
+        k.remove(slot);
+        return k.size() < MAX_SHARED ? of(k) : new Shape(k, false);
+    }
+
+    /** Returns the shape for a copy of a dictionary (unshared shapes are copied). */
+    public Shape copy() {
+        return isShared() ? this : new Shape(new ArrayList<StringData>(keys), false);
+    }
+}
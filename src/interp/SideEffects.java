@@ -0,0 +1,143 @@
+package interp;
+
+import parser.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Analysis of the AST to detect the code that may have side effects,
+ * i.e., that may write or read the standard streams, modify data
+ * visible outside the evaluation or access the file system for writing.
+ * The user functions with side effects are computed once: a function
+ * has side effects if its body has them directly or it calls a
+ * function that has them. The pure functions (see {@link #isPure})
+ * are computed in the same way.
+ */
+
+public class SideEffects {
+
+    /** Special functions that modify their arguments or write files or the output. */
+    private static final HashSet<String> mutatingBuiltins = new HashSet<String>(Arrays.asList(
+      "write_file", "add_row!", "add_rows!", "add_column!", "drop", "source", "show"
+      ));
+
+    /** Special functions whose result may differ between calls with the same arguments. */
+    private static final HashSet<String> volatileBuiltins = new HashSet<String>(Arrays.asList(
+      "read_file", "sample", "sort", "stats"
+      ));
+
+    /** Names of the user functions with side effects. */
+    private HashSet<String> impure;
+
+    /** Names of the user functions whose result may not depend only on their arguments. */
+    private HashSet<String> unrepeatable;
+
+    /** Results of the analysis of the queried trees. */
+    private HashMap<AslTree,Boolean> analyzed;
+
+    public SideEffects(Map<String,AslTree> FuncName2Tree) {
+        analyzed = new HashMap<AslTree,Boolean>();
+        impure = new HashSet<String>();
+
+        // Direct side effects and calls of each function
+        HashMap<String,HashSet<String>> calls = new HashMap<String,HashSet<String>>();
+        for (Map.Entry<String,AslTree> entry : FuncName2Tree.entrySet()) {
+            AslTree f = entry.getValue();
+            HashSet<String> callees = new HashSet<String>();
+            boolean effects = direct(f.getChild(2), callees);
+            AslTree params = f.getChild(1);
+            for (int i = 0; i < params.getChildCount(); ++i) {
+                if (params.getChild(i).getType() == AslLexer.PREF) effects = true;
+            }
+            if (effects) impure.add(entry.getKey());
+            calls.put(entry.getKey(), callees);
+        }
+        propagate(calls, impure);
+
+        unrepeatable = new HashSet<String>(impure);
+        for (Map.Entry<String,HashSet<String>> entry : calls.entrySet()) {
+            for (String callee : entry.getValue()) {
+                if (volatileBuiltins.contains(callee)) unrepeatable.add(entry.getKey());
+            }
+        }
+        propagate(calls, unrepeatable);
+    }
+
+    /** Adds the callers of the functions of the set until a fixpoint is reached. */
+    private static void propagate(HashMap<String,HashSet<String>> calls, HashSet<String> set) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String,HashSet<String>> entry : calls.entrySet()) {
+                if (set.contains(entry.getKey())) continue;
+                for (String callee : entry.getValue()) {
+                    if (set.contains(callee)) {
+                        set.add(entry.getKey());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the evaluation of the tree may have side effects.
+     * The result is remembered for the tree.
+     */
+    public synchronized boolean hasSideEffects(AslTree t) {
+        Boolean res = analyzed.get(t);
+        if (res == null) {
+            HashSet<String> callees = new HashSet<String>();
+            boolean effects = direct(t, callees);
+            for (String callee : callees) effects = effects || impure.contains(callee);
+            res = effects;
+            analyzed.put(t, res);
+        }
+        return res;
+    }
+
+    /** Checks whether the execution of the function may have side effects. */
+    public boolean functionHasSideEffects(String fname) {
+        return impure.contains(fname) || mutatingBuiltins.contains(fname);
+    }
+
+    /**
+     * Checks whether the result of the function depends only on its
+     * arguments and its execution has no side effects, so the results
+     * of previous calls can be reused.
+     */
+    public boolean isPure(String fname) {
+        return !unrepeatable.contains(fname);
+    }
+
+    /**
+     * Checks whether the tree has side effects without considering the
+     * called functions. The names of the called functions are collected.
+     */
+    private static boolean direct(AslTree t, HashSet<String> callees) {
+        if (t == null) return false;
+        switch (t.getType()) {
+            case AslLexer.READ:
+            case AslLexer.WRITE:
+            case AslLexer.WRITELN:
+                return true;
+            case AslLexer.FUNCALL: {
+                String fname = t.getChild(0).getText();
+                if (mutatingBuiltins.contains(fname)) return true;
+                callees.add(fname);
+                break;
+            }
+            default: break;
+        }
+        boolean effects = false;
+        int n = t.getChildCount();
+        for (int i = 0; i < n && !effects; ++i) {
+            effects = direct(t.getChild(i), callees);
+        }
+        return effects;
+    }
+}
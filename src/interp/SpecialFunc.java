@@ -17,6 +17,33 @@ public abstract class SpecialFunc {
 
   public abstract Data call(ArrayList<Data> args);
 
+  /**
+   * Calls the function on behalf of an interpreter. Functions that need
+   * the context of the caller (e.g. its standard output) redefine it.
+   */
+  public Data call(Interp caller, ArrayList<Data> args) {
+    return call(args);
+  }
+
+  /**
+   * Checks whether the result depends only on the values of the
+   * arguments and the call has no effects, so calls with the same
+   * arguments can be replaced by the result of one of them.
+   */
+  public boolean isPure() {
+    return false;
+  }
+
+  /** Checks whether the call may modify the arguments (passed by reference). */
+  public boolean modifiesArguments() {
+    return false;
+  }
+
+  /** Returns the type of the results, or null if it depends on the arguments. */
+  public DataKind resultKind() {
+    return null;
+  }
+
   static void checkParams(String funcname, int min, int max, ArrayList<Data> args) {
     if (max < args.size() || min > args.size()) {
       throw new RuntimeException (
@@ -31,28 +58,132 @@ public abstract class SpecialFunc {
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams, nparams, args);
 
-      TableData result = new TableData();
       String filepath = StringData.cast(args.get(0)).getValue();
-      try {
-        FileReader fr = new FileReader(new File(filepath));
-        CSVParser parser = CSVFormat.DEFAULT.parse(fr);
-        List<CSVRecord> records = parser.getRecords();
-        CSVRecord header = records.get(0);
-        ListData<StringData> labels = new ListData<StringData>();
-        for (String col : header) {
-          StringData aux = new StringData(col.trim());
-          result.addColumn(aux);
-          labels.add(aux);
-        }
-        for (int i=1; i<records.size(); i++) {
-          CSVRecord record = records.get(i);
+      TableData cached = TableCache.get(filepath);
+      if (cached != null) return cached;
+      File file = new File(filepath);
+      long length = file.length();
+      long modified = file.lastModified();
+      return TableCache.put(filepath, length, modified, read(filepath, null));
+    }
+
+    /**
+     * Reads the rows of a CSV file, or only the ones that satisfy a
+     * filter. The records are read one at a time and the rejected ones
+     * are not stored. The types of their fields are still checked, so the
+     * columns have the same types as if the whole file had been read and
+     * then filtered. The errors of the conditions are raised after the
+     * whole file has been read, as the select action would do.
+     * @param filter Conditions of the rows, or null to read all of them.
+     */
+    static TableData read(String filepath, ScanFilter filter) {
+      TableData result = new TableData();
+      File file = new File(filepath);
+      long start = Metrics.enabled ? System.nanoTime() : 0;
+      try (CSVParser parser = CSVFormat.DEFAULT.parse(new FileReader(file))) {
+        Iterator<CSVRecord> records = parser.iterator();
+        if (!records.hasNext()) throw new RuntimeException("Empty file " + filepath);
+        ListData<StringData> labels = addHeader(result, records.next());
+        // Unknown columns: the select action reports the error
+        if (filter != null && !filter.bind(result)) filter = null;
+        RuntimeException error = null;
+        long rows = 0;
+        int accepted = 0;
+        // Rows with no values are only created if a later record has values
+        int height = 0;
+        while (records.hasNext()) {
+          CSVRecord record = records.next();
+          rows++;
+          boolean accept = error == null;
+          if (accept && filter != null) {
+            try {
+              accept = filter.accepts(record);
+            } catch (RuntimeException e) {
+              error = e;
+              accept = false;
+            }
+          }
+          if (accept) accepted++;
           for (int j=0; j<labels.size(); j++) {
-            Data elem = Data.parse(record.get(j));
-            if(Data.isType("Void", elem)) continue;
-            result.put(i-1,labels.get(j),elem);
+            String type = Data.parseType(record.get(j));
+            if (type.equals("Void")) continue;
+            height = accepted;
+            if (accept) break;
+            result.declareType(j, type);
           }
+          if (accept) putRecord(result, accepted-1, labels, record);
         }
-      } catch (Exception ex) {
+        if (error != null) throw error;
+        while (result.height() < height) result.addRow();
+        if (Metrics.enabled) {
+          Metrics.count("read_file.bytes", file.length());
+          Metrics.count("read_file.rows", rows);
+          Metrics.record("read_file.build_nanos", System.nanoTime() - start);
+          if (filter != null) Metrics.count("read_file.pushdown_rejected", rows - result.height());
+        }
+      } catch (IOException | IllegalStateException ex) {
+        throw new RuntimeException(ex.getMessage());
+      }
+      return result;
+    }
+
+    /** Adds the columns of the header of a CSV file and returns their labels. */
+    static ListData<StringData> addHeader(TableData table, CSVRecord header) {
+      ListData<StringData> labels = new ListData<StringData>();
+      for (String col : header) {
+        StringData aux = new StringData(col.trim());
+        table.addColumn(aux);
+        labels.add(aux);
+      }
+      return labels;
+    }
+
+    /** Stores the values of a CSV record in a row of the table. */
+    static void putRecord(TableData table, int row, ListData<StringData> labels, CSVRecord record) {
+      for (int j=0; j<labels.size(); j++) {
+        Data elem = Data.parse(record.get(j));
+        if(Data.isType(DataKind.VOID, elem)) continue;
+        table.put(row,labels.get(j),elem);
+      }
+    }
+
+    /**
+     * Reads a sample of the rows of a CSV file (see {@link TableData#sample}).
+     * The records are parsed one at a time and only the sampled ones are
+     * kept, so the memory used does not depend on the size of the file.
+     * @param by Label of the column of the stratified sample, or null.
+     */
+    static TableData sample(String filepath, int n, Random random, String by) {
+      TableData result = new TableData();
+      try (CSVParser parser = CSVFormat.DEFAULT.parse(new FileReader(new File(filepath)))) {
+        Iterator<CSVRecord> records = parser.iterator();
+        if (!records.hasNext()) return result;
+        ListData<StringData> labels = addHeader(result, records.next());
+        int key = by == null ? -1 : result.columnIndex(new StringData(by));
+        Reservoir<CSVRecord> all = key < 0 ? new Reservoir<CSVRecord>(n, random) : null;
+        LinkedHashMap<Data,Reservoir<CSVRecord>> groups = new LinkedHashMap<Data,Reservoir<CSVRecord>>();
+        long rows = 0;
+        while (records.hasNext()) {
+          CSVRecord record = records.next();
+          rows++;
+          if (key < 0) {
+            all.offer(record);
+            continue;
+          }
+          Data value = Data.parse(record.get(key));
+          Reservoir<CSVRecord> reservoir = groups.get(value);
+          if (reservoir == null) groups.put(value, reservoir = new Reservoir<CSVRecord>(n, random));
+          reservoir.offer(record);
+        }
+        if (key < 0 && rows < n)
+          throw new RuntimeException(
+            "Table height "+rows+" is lower than requested sample size "+n+"\n"
+            );
+        if (Metrics.enabled) Metrics.count("sample.scanned_rows", rows);
+        ArrayList<CSVRecord> chosen = key < 0 ? all.items() : new ArrayList<CSVRecord>();
+        for (Reservoir<CSVRecord> reservoir : groups.values()) chosen.addAll(reservoir.items());
+        for (int i=0; i<chosen.size(); i++) putRecord(result, i, labels, chosen.get(i));
+      } catch (IOException ex) {
         throw new RuntimeException(ex.getMessage());
       }
       return result;
@@ -92,24 +223,24 @@ public abstract class SpecialFunc {
           List record = new ArrayList();
           for (int j=0; j<table.width(); j++) {
             Data elem = row.get(labels.get(j));
-            if (Data.isType("Void", elem))
+            if (Data.isType(DataKind.VOID, elem))
               record.add("");
             else
               record.add(elem.toString());
           }
           csvFilePrinter.printRecord(record);
         }
+        if (Metrics.enabled) Metrics.count("write_file.rows", table.height());
       } catch (Exception e) {
-        System.out.println("Error in write_file");
-        e.printStackTrace();
+        throw new RuntimeException("Error in write_file: " + e.getMessage());
       } finally {
+        // The size and the modification time may not change when the file is rewritten
+        TableCache.invalidate(filepath);
         try {
-          fileWriter.flush();
-          fileWriter.close();
-          csvFilePrinter.close();
+          if (csvFilePrinter != null) csvFilePrinter.close();
+          else if (fileWriter != null) fileWriter.close();
         } catch (IOException e) {
-          System.out.println("Error while flushing/closing fileWriter/csvPrinter");
-          e.printStackTrace();
+          throw new RuntimeException("Error while closing " + filepath + ": " + e.getMessage());
         }
       }
 
@@ -122,9 +253,12 @@ public abstract class SpecialFunc {
   public static class CreateNewTable extends SpecialFunc {
     private static final int nparams = 1;
     private static final String funcname = "create_table";
+    public boolean isPure() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams, nparams, args);
-      assert Data.isType("List",args.get(0));
+      assert Data.isType(DataKind.LIST,args.get(0));
       ListData list = (ListData) args.get(0);
       TableData result = new TableData(list);
       return result;
@@ -134,27 +268,50 @@ public abstract class SpecialFunc {
 
   //*** Importante: Cambia la definicion inicial de la funcion
   public static class Sample extends SpecialFunc {
-    private static final int nparams = 2;
+    private static final int nparamsMin = 2;
+    private static final int nparamsMax = 3;
     private static final String funcname = "sample";
+    /**
+     * sample(n, t) or sample(n, t, options), where t is a table or the
+     * path of a CSV file, which is sampled while it is read without
+     * building the whole table. Options: "seed" (Integer) makes the
+     * sample reproducible and "by" (column label) takes n rows for each
+     * value of the column.
+     */
     public Data call(ArrayList<Data> args) {
-      checkParams(funcname, nparams, nparams, args);
-      assert Data.isType("Integer", args.get(0));
-      assert Data.isType("Table", args.get(1));
-      IntegerData n = IntegerData.cast(args.get(0));
-      TableData original = TableData.cast(args.get(1));
-      return original.sample(n);
+      checkParams(funcname, nparamsMin, nparamsMax, args);
+      int n = IntegerData.cast(args.get(0)).toInt();
+      Random random = new Random();
+      String by = null;
+      if (args.size() == 3) {
+        if (!(args.get(2) instanceof DictData))
+          throw new RuntimeException("Options of " + funcname + " must be a dictionary\n");
+        DictData options = (DictData) args.get(2);
+        Data seed = options.get("seed");
+        if (!Data.isType(DataKind.VOID, seed)) random = new Random(IntegerData.cast(seed).getValue());
+        Data column = options.get("by");
+        if (!Data.isType(DataKind.VOID, column)) by = StringData.cast(column).getValue();
+      }
+      Data source = args.get(1);
+      if (source instanceof StringData) {
+        return ReadFile.sample(((StringData) source).getValue(), n, random, by);
+      }
+      TableData original = TableData.cast(source);
+      if (by == null) return original.sample(n, random);
+      return original.sample(n, random, original.columnIndex(new StringData(by)));
     }
   }
 
+  /** It shuffles the elements, so it is not pure (see {@link SpecialFunc#isPure}). */
   public static class Sort extends SpecialFunc {
     private static final int nparams = 1;
     private static final String funcname = "sort";
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams, nparams, args);
-      assert Data.isType("Table", args.get(0))
-        || Data.isType("List", args.get(0));
+      assert Data.isType(DataKind.TABLE, args.get(0))
+        || Data.isType(DataKind.LIST, args.get(0));
       Data seqCollection = args.get(0);
-      if (Data.isType("Table", args.get(0)))
+      if (Data.isType(DataKind.TABLE, args.get(0)))
         return TableData.cast(seqCollection).sort();
       else
         return ListData.cast(seqCollection).sort();
@@ -165,14 +322,15 @@ public abstract class SpecialFunc {
     private static final int nparamsMin = 1;
     private static final int nparamsMax = 10;
     private static final String funcname = "merge";
+    public boolean isPure() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparamsMin, nparamsMax, args);
-      assert Data.isType("Table", args.get(0));
-      TableData res = TableData.cast(args.get(0));
-      for (int i=1; i<args.size(); i++) {
-        assert Data.isType("Table", args.get(i));
-        res.merge(TableData.cast(args.get(i)));
-      }
+      TableData res = TableData.cast(args.get(0)).deepClone();
+      ArrayList<TableData> tables = new ArrayList<TableData>();
+      for (int i=1; i<args.size(); i++) tables.add(TableData.cast(args.get(i)));
+      res.merge(tables);
       return res;
     }
   }
@@ -180,22 +338,31 @@ public abstract class SpecialFunc {
   public static class GetColumnNames extends SpecialFunc {
     private static final int nparams = 1;
     private static final String funcname = "column_names";
+    public boolean isPure() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams, nparams, args);
-      assert Data.isType("Table", args.get(0));
+      assert Data.isType(DataKind.TABLE, args.get(0));
       TableData table = (TableData) args.get(0);
-      return table.getColumnNames();
+      return table.getColumnNames().deepClone();
     }
   }
 
   public static class GetNumRows extends SpecialFunc{
     private static final int nparams = 1;
     private static final String funcname = "num_rows";
+    public boolean isPure() {
+      return true;
+    }
+    public DataKind resultKind() {
+      return DataKind.INTEGER;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams , nparams , args);
-      assert args.get(0).getType().equals("Table");
+      assert args.get(0).getKind() == DataKind.TABLE;
       TableData table = (TableData) args.get(0);
-      return new IntegerData(table.height());
+      return IntegerData.valueOf(table.height());
 
     }
   }
@@ -203,11 +370,17 @@ public abstract class SpecialFunc {
   public static class GetNumCols extends SpecialFunc{
     private static final int nparams = 1;
     private static final String funcname = "num_columns";
+    public boolean isPure() {
+      return true;
+    }
+    public DataKind resultKind() {
+      return DataKind.INTEGER;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams , nparams , args);
-      assert args.get(0).getType().equals("Table");
+      assert args.get(0).getKind() == DataKind.TABLE;
       TableData table = (TableData) args.get(0);
-      return new IntegerData(table.width());
+      return IntegerData.valueOf(table.width());
 
     }
   }
@@ -215,12 +388,156 @@ public abstract class SpecialFunc {
   public static class GetListLength extends SpecialFunc{
     private static final int nparams = 1;
     private static final String funcname = "length";
+    public boolean isPure() {
+      return true;
+    }
+    public DataKind resultKind() {
+      return DataKind.INTEGER;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams , nparams , args);
-      assert args.get(0).getType().equals("List");
+      assert args.get(0).getKind() == DataKind.LIST;
       ListData list = (ListData) args.get(0);
-      return new IntegerData(list.size());
+      return IntegerData.valueOf(list.size());
+
+    }
+  }
+
+  public static class Sum extends SpecialFunc{
+    private static final int nparamsMin = 1;
+    private static final int nparamsMax = 2;
+    private static final String funcname = "sum";
+    public boolean isPure() {
+      return true;
+    }
+    public Data call(ArrayList<Data> args) {
+      checkParams(funcname, nparamsMin , nparamsMax , args);
+      if (args.size() == 1) {
+        assert args.get(0).getKind() == DataKind.LIST;
+        ListData<?> list = (ListData<?>) args.get(0);
+        return list.sum();
+      }
+      assert args.get(0).getKind() == DataKind.TABLE;
+      TableData table = (TableData) args.get(0);
+      StringData name = StringData.cast(args.get(1));
+      int pos = table.columnIndex(name);
+      Column col = table.getColumn(pos);
+      String type = table.getTypes().get(pos);
+      if (type.equals("Integer"))
+        return IntegerData.valueOf(sumLong(col, null, 0));
+      if (type.equals("Float"))
+        return new FloatData(sumDouble(col, null, 0));
+      if (type.equals("Untyped"))
+        return IntegerData.valueOf(0);
+      throw new RuntimeException("Column " + name.getValue() + " is not numeric");
+    }
+
+    /**
+     * Adds the cells of an Integer column to a sum, in order (missing
+     * cells are skipped). Views and chunked columns are read in place,
+     * without copying the cells.
+     * @param rows Rows of the column to add, or null for all of them.
+     */
+    private static long sumLong(Column c, int[] rows, long res) {
+      if (rows == null && c instanceof ColumnView) {
+        return sumLong(((ColumnView) c).base(), ((ColumnView) c).rows(), res);
+      }
+      if (rows == null && c instanceof ChunkedColumn) {
+        ChunkedColumn chunked = (ChunkedColumn) c;
+        for (int k = 0; k < chunked.chunks(); k++) res = sumLong(chunked.getChunk(k), null, res);
+        return res;
+      }
+      int n = rows == null ? c.size() : rows.length;
+      try {
+        if (c instanceof IntegerColumn) {
+          IntegerColumn ic = (IntegerColumn) c;
+          for (int i = 0; i < n; i++) {
+            int row = rows == null ? i : rows[i];
+            if (!ic.isVoid(row)) res = Math.addExact(res, ic.getLong(row));
+          }
+        } else {
+          for (int i = 0; i < n; i++) {
+            int row = rows == null ? i : rows[i];
+            if (!c.isVoid(row)) res = Math.addExact(res, IntegerData.cast(c.get(row)).getValue());
+          }
+        }
+      } catch (ArithmeticException e) {
+        throw new RuntimeException("Integer overflow");
+      }
+      return res;
+    }
+
+    /** Adds the cells of a Float column to a sum, in order (see {@link #sumLong}). */
+    private static double sumDouble(Column c, int[] rows, double res) {
+      if (rows == null && c instanceof ColumnView) {
+        return sumDouble(((ColumnView) c).base(), ((ColumnView) c).rows(), res);
+      }
+      if (rows == null && c instanceof ChunkedColumn) {
+        ChunkedColumn chunked = (ChunkedColumn) c;
+        for (int k = 0; k < chunked.chunks(); k++) res = sumDouble(chunked.getChunk(k), null, res);
+        return res;
+      }
+      int n = rows == null ? c.size() : rows.length;
+      if (c instanceof FloatColumn) {
+        FloatColumn fc = (FloatColumn) c;
+        for (int i = 0; i < n; i++) {
+          int row = rows == null ? i : rows[i];
+          if (!fc.isVoid(row)) res += fc.getDouble(row);
+        }
+      } else if (c instanceof IntegerColumn) {
+        // Integer chunks of merged Float columns
+        IntegerColumn ic = (IntegerColumn) c;
+        for (int i = 0; i < n; i++) {
+          int row = rows == null ? i : rows[i];
+          if (!ic.isVoid(row)) res += ic.getLong(row);
+        }
+      } else {
+        for (int i = 0; i < n; i++) {
+          int row = rows == null ? i : rows[i];
+          if (!c.isVoid(row)) res += FloatData.toDouble(c.get(row));
+        }
+      }
+      return res;
+    }
+  }
+
+  /**
+   * Writes a table with aligned columns: show(t) writes the first and
+   * last rows, show(t, n) the first n rows and show(t, -n) the last n.
+   * Other values are written as with writeln.
+   */
+  public static class Show extends SpecialFunc{
+    private static final int nparamsMin = 1;
+    private static final int nparamsMax = 2;
+    private static final String funcname = "show";
+    public Data call(ArrayList<Data> args) {
+      return call(null, args);
+    }
+    public Data call(Interp caller, ArrayList<Data> args) {
+      checkParams(funcname, nparamsMin, nparamsMax, args);
+      PrintStream out = caller == null ? System.out : caller.getOutput();
+      int n = args.size() == 2 ? IntegerData.cast(args.get(1)).toInt() : 0;
+      Data d = args.get(0);
+      if (d instanceof TableData) {
+        TablePrinter.show((TableData) d, out, n);
+      } else {
+        d.print(out);
+        out.println("");
+      }
+      return new VoidData();
+    }
+  }
 
+  /**
+   * Returns a dictionary with the metrics of the table operations
+   * (empty if the metrics are not enabled). See Metrics.
+   */
+  public static class Stats extends SpecialFunc{
+    private static final int nparams = 0;
+    private static final String funcname = "stats";
+    public Data call(ArrayList<Data> args) {
+      checkParams(funcname, nparams, nparams, args);
+      return Metrics.toData();
     }
   }
 
@@ -228,13 +545,16 @@ public abstract class SpecialFunc {
     private static final int nparamsMin = 1;
     private static final int nparamsMax = 10;
     private static final String funcname = "add_row!";
+    public boolean modifiesArguments() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparamsMin, nparamsMax, args);
-      assert Data.isType("Table", args.get(0));
-      assert Data.isType("Dict", args.get(1));
+      assert Data.isType(DataKind.TABLE, args.get(0));
+      assert Data.isType(DataKind.DICT, args.get(1));
       TableData table = (TableData) args.get(0);
       for(int i = 1; i<args.size(); ++i){
-        assert args.get(i).getType().equals("Dict");
+        assert args.get(i).getKind() == DataKind.DICT;
         DictData row = (DictData) args.get(i);
         table.addRow(row);
       }
@@ -242,17 +562,37 @@ public abstract class SpecialFunc {
     }
   }
 
-   public static class AddNewRowCopy extends SpecialFunc {
+   /** add_rows!(t, rows): adds the rows of a list of dictionaries to the table. */
+  public static class AddNewRows extends SpecialFunc {
+    private static final int nparams = 2;
+    private static final String funcname = "add_rows!";
+    public boolean modifiesArguments() {
+      return true;
+    }
+    public Data call(ArrayList<Data> args) {
+      checkParams(funcname, nparams, nparams, args);
+      TableData table = TableData.cast(args.get(0));
+      if (!Data.isType(DataKind.LIST, args.get(1)))
+        throw new RuntimeException(funcname + " expects a list of dictionaries");
+      table.addRows(ListData.cast(args.get(1)));
+      return table;
+    }
+  }
+
+  public static class AddNewRowCopy extends SpecialFunc {
     private static final int nparamsMin = 1;
     private static final int nparamsMax = 10;
     private static final String funcname = "add_row";
+    public boolean isPure() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparamsMin, nparamsMax, args);
-      assert Data.isType("Table",args.get(0));
+      assert Data.isType(DataKind.TABLE,args.get(0));
       TableData table = (TableData) args.get(0);
       TableData newTable = (TableData) table.deepClone();
       for(int i = 1; i<args.size(); ++i){
-        assert Data.isType("Dict", args.get(i));
+        assert Data.isType(DataKind.DICT, args.get(i));
         DictData row = (DictData) args.get(i);
         newTable.addRow(row);
       }
@@ -263,18 +603,21 @@ public abstract class SpecialFunc {
   public static class AddNewColumn extends SpecialFunc{
     private static final int nparams = 2;
     private static final String funcname = "add_column!";
+    public boolean modifiesArguments() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams, nparams, args);
-      assert args.get(0).getType().equals("Table");
-      String type = args.get(1).getType();
+      assert args.get(0).getKind() == DataKind.TABLE;
+      DataKind type = args.get(1).getKind();
       TableData table = (TableData) args.get(0);
-      if(type.equals("List")){
+      if(type == DataKind.LIST){
         ListData<StringData> newCols = (ListData<StringData>) args.get(1);
         for(int i = 0; i<newCols.size(); ++i){
           table.addColumn(newCols.get(i));
         }
         return table;
-      }else if(type.equals("Dict")){
+      }else if(type == DataKind.DICT){
         DictData newCols = (DictData) args.get(1);
         for(Map.Entry<StringData,Data> entry : newCols.entrySet()){
             table.addColumn(entry.getKey(),entry.getValue());
@@ -288,19 +631,22 @@ public abstract class SpecialFunc {
   public static class AddNewColumnCopy extends SpecialFunc{
     private static final int nparams = 2;
     private static final String funcname = "add_column";
+    public boolean isPure() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparams , nparams , args);
-      assert args.get(0).getType().equals("Table");
-      String type = args.get(1).getType();
+      assert args.get(0).getKind() == DataKind.TABLE;
+      DataKind type = args.get(1).getKind();
       TableData table = (TableData) args.get(0);
       TableData newTable = (TableData) table.deepClone();
-      if(type.equals("List")){
+      if(type == DataKind.LIST){
         ListData<StringData> newCols = (ListData<StringData>) args.get(1);
         for(int i = 0; i<newCols.size(); ++i){
           newTable.addColumn(newCols.get(i));
         }
         return newTable;
-      }else if(type.equals("Dict")){
+      }else if(type == DataKind.DICT){
         DictData newCols = (DictData) args.get(1);
         for(Map.Entry<StringData,Data> entry : newCols.entrySet()){
             newTable.addColumn(entry.getKey(),entry.getValue());
@@ -316,72 +662,28 @@ public abstract class SpecialFunc {
     private static final int nparams = 1;
     private static final String funcname = "source";
     public Data call(ArrayList<Data> args) {
-      checkParams(funcname, nparams , nparams , args);
-      assert args.get(0).getType().equals("String");
-
-      Data script_result = new VoidData();
-      StringData file = (StringData) args.get(0);
-      String infile = file.getValue();
-      boolean execute = true;
-
-      CharStream input = null;
-        try {
-            input = new ANTLRFileStream(infile);
-        } catch (IOException e) {
-            System.err.println ("Error: file " + infile + " could not be opened.");
-            System.exit(1);
-        }
-
-        // Creates the lexer
-        AslLexer lex = new AslLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lex);
-
-        // Creates and runs the parser. As a result, an AST is created
-        AslParser parser = new AslParser(tokens);
-        AslTreeAdaptor adaptor = new AslTreeAdaptor();
-        parser.setTreeAdaptor(adaptor);
-        AslParser.prog_return result = null;
-        try {
-            result = parser.prog();
-        } catch (Exception e) {} // Just catch the exception (nothing to do)
-
-        // Check for parsing errors
-        int nerrors = parser.getNumberOfSyntaxErrors();
-        if (nerrors > 0) {
-            System.err.println (nerrors + " errors detected. " +
-                                "The program has not been executed.");
-            System.exit(1);
-        }
-
-        // Get the AST
-        AslTree t = (AslTree)result.getTree();
-
-        // Start interpretation (only if execution required)
-        if (execute) {
-            // Creates and prepares the interpreter
-            Interp I = null;
-            int linenumber = -1;
+      throw new RuntimeException("Function " + funcname + " requires an interpreter");
+    }
 
-            try {
-                I = new Interp(t, null); // prepares the interpreter
-                script_result = I.Run();                  // Executes the code
-            } catch (RuntimeException e) {
-                if (I != null) linenumber = I.lineNumber();
-                System.err.print ("Runtime error");
-                if (linenumber < 0) System.err.print (": ");
-                else System.err.print (" (" + infile + ", line " + linenumber + "): ");
-                System.err.println (e.getMessage() + ".");
-                System.err.format (I.getStackTrace());
-            } catch (StackOverflowError e) {
-                if (I != null) linenumber = I.lineNumber();
-                System.err.print("Stack overflow error");
-                if (linenumber < 0) System.err.print (".");
-                else System.err.println (" (" + infile + ", line " + linenumber + ").");
-                System.err.format (I.getStackTrace(5));
-            }
-        }
+    /**
+     * Executes the main function of another script with a new
+     * interpreter that shares the standard streams of the caller.
+     * Parsed scripts are cached (see Program.load).
+     */
+    public Data call(Interp caller, ArrayList<Data> args) {
+      checkParams(funcname, nparams , nparams , args);
+      assert args.get(0).getKind() == DataKind.STRING;
 
-      return script_result;
+      String infile = StringData.cast(args.get(0)).getValue();
+      Program program = Program.load(infile);
+      Interp I = new Interp(program, caller);
+      try {
+        return I.Run();
+      } catch (RuntimeException e) {
+        int linenumber = I.lineNumber();
+        String where = linenumber < 0 ? "" : " (" + infile + ", line " + linenumber + ")";
+        throw new RuntimeException("Runtime error" + where + ": " + e.getMessage());
+      }
     }
   }
 
@@ -390,17 +692,20 @@ public abstract class SpecialFunc {
     private static final int nparamsMin = 1;
     private static final int nparamsMax = 2;
     private static final String funcname = "drop";
+    public boolean modifiesArguments() {
+      return true;
+    }
     public Data call(ArrayList<Data> args) {
       checkParams(funcname, nparamsMin , nparamsMax , args);
-      assert args.get(0).getType().equals("Table");
+      assert args.get(0).getKind() == DataKind.TABLE;
       TableData t = (TableData) args.get(0);
       if(args.size() > 1){
-        String type = args.get(1).getType();
-        if(type.equals("Integer")){
+        DataKind type = args.get(1).getKind();
+        if(type == DataKind.INTEGER){
           IntegerData row = (IntegerData) args.get(1);
           t.DropRow(row);
           return null;
-        }else if(type.equals("String")){
+        }else if(type == DataKind.STRING){
           StringData col = (StringData) args.get(1);
           t.DropColumn(col);
           return null;
@@ -68,6 +68,19 @@ public class Stack {
         StackTrace = new LinkedList<StackTraceItem>();
     }
 
+    /**
+     * Creates a memory whose only activation record is a copy of the
+     * current one. The variables refer to the same data. It keeps the
+     * stack trace, so that errors can be reported with it.
+     */
+    public Stack snapshot() {
+        Stack res = new Stack();
+        res.CurrentAR = new HashMap<String,Data>(CurrentAR);
+        res.Stack.addLast(res.CurrentAR);
+        res.StackTrace.addAll(StackTrace);
+        return res;
+    }
+
     /** Creates a new activation record on the top of the stack */
     public void pushActivationRecord(String name, int line) {
         CurrentAR = new HashMap<String,Data>();
@@ -17,7 +17,7 @@ public class StringData extends Data {
     text = new String(s2.text);
   }
 
-  public String getType() { return "String"; }
+  public DataKind getKind() { return DataKind.STRING; }
 
   public String toString() {
     return "'" + text + "'";
@@ -55,7 +55,7 @@ public class StringData extends Data {
   * @return A Boolean data with the text of the expression.
   */
   public BooleanData evaluateRelational(int op, Data data) {
-    if ("String" != data.getType())
+    if (data.getKind() != DataKind.STRING)
       return new BooleanData(false);
 
     StringData d = (StringData) data;
@@ -70,7 +70,7 @@ public class StringData extends Data {
   }
 
     public StringData evaluateArithmetic (int op, Data data) {
-      assert "String" == data.getType();
+      assert data.getKind() == DataKind.STRING;
 
       StringData string2 = (StringData) data;
       switch (op) {
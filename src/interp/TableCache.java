@@ -0,0 +1,147 @@
+package interp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the tables read by read_file, shared by all the interpreters
+ * of the process. The entries are keyed on the canonical path of the
+ * file and are valid while its size and modification time do not
+ * change. The callers receive copies that share the columns with the
+ * cached table, so they can be modified without copying anything until
+ * they are (see {@link TableData#deepClone}).
+ *
+ * The least recently used tables are evicted when the total size of the
+ * cached files exceeds the capacity. The size of a file is used as the
+ * size of its table, which is usually larger.
+ */
+
+public final class TableCache {
+
+    private static class Entry {
+        final TableData table;
+        final long length;
+        final long modified;
+
+        Entry(TableData table, long length, long modified) {
+            this.table = table;
+            this.length = length;
+            this.modified = modified;
+        }
+    }
+
+    /** Entries in access order (the first one is the least recently used). */
+    private static final LinkedHashMap<String,Entry> entries =
+        new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+    /** Maximum number of bytes of the cached files (0 disables the cache). */
+    private static long capacity = Runtime.getRuntime().maxMemory() / 4;
+
+    private static long size = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    private TableCache() {}
+
+    /** Sets the maximum number of bytes of the cached files and evicts the excess. */
+    public static synchronized void setCapacity(long bytes) {
+        capacity = Math.max(bytes, 0);
+        evict();
+    }
+
+    /** Returns the key of a file, or null if it cannot be cached. */
+    private static String key(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a copy of the cached table of a file, or null if the file
+     * is not cached or has changed since it was read.
+     */
+    public static synchronized TableData get(String filepath) {
+        if (capacity == 0) return null;
+        File file = new File(filepath);
+        String key = key(file);
+        Entry e = key == null ? null : entries.get(key);
+        if (e != null && (e.length != file.length() || e.modified != file.lastModified())) {
+            entries.remove(key);
+            size -= e.length;
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            if (Metrics.enabled) Metrics.count("read_file.cache_misses", 1);
+            return null;
+        }
+        hits++;
+        if (Metrics.enabled) Metrics.count("read_file.cache_hits", 1);
+        return e.table.deepClone();
+    }
+
+    /**
+     * Stores the table read from a file, which must not be modified
+     * afterwards, and returns a copy for the caller (or the table if it
+     * is not cached).
+     * @param length Size of the file when it was read.
+     * @param modified Modification time of the file when it was read.
+     */
+    public static synchronized TableData put(String filepath, long length, long modified, TableData table) {
+        File file = new File(filepath);
+        String key = key(file);
+        if (key == null || length > capacity
+            || file.length() != length || file.lastModified() != modified) return table;
+        Entry old = entries.put(key, new Entry(table, length, modified));
+        if (old != null) size -= old.length;
+        size += length;
+        evict();
+        return table.deepClone();
+    }
+
+    /** Removes the table of a file, which is being written. */
+    public static synchronized void invalidate(String filepath) {
+        String key = key(new File(filepath));
+        Entry e = key == null ? null : entries.remove(key);
+        if (e != null) size -= e.length;
+    }
+
+    private static void evict() {
+        Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+        while (size > capacity && it.hasNext()) {
+            size -= it.next().getValue().length;
+            it.remove();
+            evictions++;
+            if (Metrics.enabled) Metrics.count("read_file.cache_evictions", 1);
+        }
+    }
+
+    /** Removes all the tables. */
+    public static synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    public static synchronized long hits() {
+        return hits;
+    }
+
+    public static synchronized long misses() {
+        return misses;
+    }
+
+    public static synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Returns the number of bytes of the cached files. */
+    public static synchronized long size() {
+        return size;
+    }
+}
@@ -1,37 +1,71 @@
 package interp;
 import parser.*;
-import java.util.Map;
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.Collections;
-
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Table of values organized by columns. Each column has a label, a type
+ * ("Untyped" until the first value is stored) and a Column with the
+ * contents. Rows are materialized as dictionaries only when requested.
+ *
+ * Copies of a table and the results of select and filter share the
+ * columns of the original table (the latter through views of the
+ * selected rows). A shared column is copied the first time the table
+ * modifies it, so the cost of a copy is only paid by the columns that
+ * are modified.
+ */
 
 public class TableData extends Data {
 
     private ArrayList<String> types;
     private ListData<StringData> labels;
-    private ArrayList<DictData> table;
+    private ArrayList<Column> columns;
+    private int height;
+    /** Position of each label in the list of labels. */
+    private HashMap<StringData,Integer> positions;
 
     public TableData() {
       types = new ArrayList<String>();
       labels = new ListData<StringData>();
-      table = new ArrayList<DictData>();
+      columns = new ArrayList<Column>();
+      positions = new HashMap<StringData,Integer>();
+      height = 0;
     }
     public TableData(ListData<StringData> ld) {
       labels = (ListData<StringData>) ld.deepClone();
       types = new ArrayList<String>();
-      table = new ArrayList<DictData>();
-      for(int i=0; i<ld.size(); ++i) types.add("Untyped");
+      columns = new ArrayList<Column>();
+      for(int i=0; i<ld.size(); ++i) {
+        types.add("Untyped");
+        columns.add(Column.create("Untyped"));
+      }
+      reindex();
     }
     public TableData(ListData<StringData> ld, ArrayList<String> t) {
       labels = (ListData<StringData>) ld.deepClone();
       types = new ArrayList<String>();
-      for (int i=0; i<t.size(); i++) { types.add(t.get(i)); }
-      table = new ArrayList<DictData>();
+      columns = new ArrayList<Column>();
+      for (int i=0; i<t.size(); i++) {
+        types.add(t.get(i));
+        columns.add(Column.create(t.get(i)));
+      }
+      reindex();
+    }
+
+    /** Rebuilds the map from labels to positions. */
+    private void reindex() {
+      positions = new HashMap<StringData,Integer>();
+      for (int j=0; j<labels.size(); j++) positions.put(labels.get(j), j);
     }
 
     public int height() {
-      return table.size();
+      return height;
     }
 
     public int width() {
@@ -42,14 +76,16 @@ public class TableData extends Data {
       return labels.size() == 0;
     }
 
+    /** Removes the rows and the types of the columns. The labels are kept. */
     public void clear() {
-      table.clear();
+      height = 0;
       types.clear();
+      columns.clear();
     }
 
     @Override
     public int hashCode() {
-      return table.hashCode();
+      return 31*labels.hashCode() + height;
     }
 
     @Override
@@ -59,50 +95,40 @@ public class TableData extends Data {
         return false;
       }
       TableData td = (TableData) o;
-      return table.equals(td.table)
-        && labels.equals(td.labels);
+      if (height != td.height || !labels.equals(td.labels))
+        return false;
+      for (int j=0; j<width(); j++) {
+        Column c1 = columns.get(j);
+        Column c2 = td.columns.get(j);
+        for (int i=0; i<height; i++) {
+          if (!c1.get(i).equals(c2.get(i))) return false;
+        }
+      }
+      return true;
     }
 
-    public String getType() {
-      return "Table";
+    public DataKind getKind() {
+      return DataKind.TABLE;
     }
 
     public void setValue (Data d){
         TableData t2 = cast(d);
         types = (ArrayList<String>) t2.types.clone();
         labels = (ListData<StringData>) t2.labels.deepClone();
-        table = (ArrayList<DictData>) t2.table.clone();
+        columns = new ArrayList<Column>();
+        for (Column c : t2.columns) columns.add(c.share());
+        height = t2.height;
+        reindex();
     }
 
     public String toString() {
-      String textTable = "";
-      textTable += "Labels:%n";
-      for (int j=0; j<labels.size(); j++) {
-        Data elem = labels.get(j);
-        if (Data.isType("Void", elem))
-          textTable += ",  ";
-        else
-          textTable += elem.toString() + ",  ";
-      }
-      textTable += "%nContents:%n";
-      for (int i=0; i<height(); i++) {
-        DictData row = get(i);
-        for (int j=0; j<width(); j++) {
-          Data elem = row.get(labels.get(j));
-          if (Data.isType("Void", elem))
-            textTable += ",  ";
-          else
-            textTable += elem.toString() + ",  ";
-        }
-        textTable += "%n";
-      }
-      textTable += "Types:%n";
-      for (int j=0; j<types.size(); j++) {
-        String elem = types.get(j);
-        textTable += elem.toString() + ",  ";
-      }
-      textTable += "%n";
-      return textTable;
+      StringBuilder sb = new StringBuilder();
+      TablePrinter.print(this, sb);
+      return sb.toString();
+    }
+
+    public void print(PrintStream out) {
+      TablePrinter.write(this, out);
     }
 
     public ArrayList<String> getLabels() {
@@ -121,51 +147,181 @@ public class TableData extends Data {
       return labels;
     }
 
+    /** Returns the position of the column (-1 if it does not exist). */
+    public int findColumn(StringData col) {
+      Integer pos = positions.get(col);
+      return pos == null ? -1 : pos;
+    }
+
+    /** Returns the position of the column. It raises an exception if it does not exist. */
+    public int columnIndex(StringData col) {
+      Integer pos = positions.get(col);
+      if (pos == null) throw new RuntimeException("Table has no column named " + col.getValue());
+      return pos;
+    }
+
+    public Column getColumn(int col) {
+      return columns.get(col);
+    }
+
+    /** Returns a copy of the table. The columns are shared until they are modified. */
     public TableData deepClone() {
       TableData res = new TableData(labels, types);
-      for (DictData row: table) {
-        DictData row_copy = new DictData();
-        for (Map.Entry<StringData, Data> entry : row.entrySet()) {
-          row_copy.put(entry.getKey(), entry.getValue().deepClone());
-        }
-        res.table.add(row_copy);
+      for (int j=0; j<columns.size(); j++) res.columns.set(j, columns.get(j).share());
+      res.height = height;
+      if (Metrics.enabled) Metrics.count("table.clones", 1);
+      return res;
+    }
+
+    /**
+     * Returns the column at the given position ready to be modified.
+     * A shared column is replaced by a copy first.
+     */
+    private Column writable(int pos) {
+      Column c = columns.get(pos);
+      if (c.isShared()) {
+        c = c.copy();
+        columns.set(pos, c);
+        if (Metrics.enabled) Metrics.count("table.cloned_cells", height);
       }
-      assert equals(res);
+      return c;
+    }
+
+    /**
+     * Returns a new table with copies of the given rows, in the
+     * order of the array.
+     */
+    public TableData selectRows(int[] rows) {
+      TableData res = new TableData(labels, types);
+      for (int j=0; j<columns.size(); j++) res.columns.set(j, columns.get(j).select(rows));
+      res.height = rows.length;
+      if (Metrics.enabled) Metrics.count("table.selected_rows", rows.length);
+      return res;
+    }
+
+    /**
+     * Returns a table with the given rows, in the order of the array,
+     * that reads the cells from this table. The cells are not copied.
+     */
+    public TableData view(int[] rows) {
+      TableData res = new TableData(labels, types);
+      for (int j=0; j<columns.size(); j++) res.columns.set(j, new ColumnView(columns.get(j), rows));
+      res.height = rows.length;
+      if (Metrics.enabled) Metrics.count("table.view_rows", rows.length);
       return res;
     }
 
     public void merge(TableData table) {
-      if (!table.labels.equals(labels))
-        throw new RuntimeException("Labels must be equal and in the " +
-          "exact same order to be able to merge"
-          );
-      for (int i=0; i<table.height(); i++) {
-        addRow(table.get(i));
+      ArrayList<TableData> tables = new ArrayList<TableData>();
+      tables.add(table);
+      merge(tables);
+    }
+
+    /**
+     * Appends the rows of the tables. The columns of the result are
+     * concatenations of the columns of the tables (see ChunkedColumn),
+     * so the cells are not copied and the tables are not modified.
+     */
+    public void merge(List<TableData> tables) {
+      for (TableData table : tables) {
+        if (!table.labels.equals(labels))
+          throw new RuntimeException("Labels must be equal and in the " +
+            "exact same order to be able to merge"
+            );
+      }
+      int total = height;
+      for (TableData table : tables) total += table.height;
+      if (Metrics.enabled) Metrics.count("table.merged_rows", total - height);
+      for (int j=0; j<width(); j++) {
+        String type = types.get(j);
+        ArrayList<Column> parts = new ArrayList<Column>();
+        parts.add(columns.get(j));
+        for (TableData table : tables) {
+          type = mergedType(j, type, table.types.get(j));
+          parts.add(table.columns.get(j));
+        }
+        types.set(j, type);
+        columns.set(j, new ChunkedColumn(type, parts));
       }
+      height = total;
+    }
+
+    /** Returns the type of a column with values of both types. */
+    private String mergedType(int pos, String type, String other) {
+      if (type.equals(other) || other.equals("Untyped")) return type;
+      if (type.equals("Untyped")) return other;
+      if (type.equals("Integer") && other.equals("Float")) return other;
+      if (type.equals("Float") && other.equals("Integer")) return type;
+      throw new RuntimeException("Column " + labels.get(pos).getValue()+ " with type " + type + " is not compatible with type " + other);
+    }
+
+    private int[] shuffledRows() {
+      ArrayList<Integer> order = new ArrayList<Integer>();
+      for (int i=0; i<height; i++) order.add(i);
+      Collections.shuffle(order);
+      int[] rows = new int[height];
+      for (int i=0; i<height; i++) rows[i] = order.get(i);
+      return rows;
     }
 
     public TableData sort() {
-      TableData res = TableData.cast(deepClone());
-      Collections.shuffle(res.table);
-      return res;
+      return selectRows(shuffledRows());
     }
 
     public TableData sample(IntegerData n) {
-      return sample(n.getValue());
+      return sample(n.toInt());
     }
 
     public TableData sample(int n) {
+      return sample(n, new Random());
+    }
+
+    /**
+     * Returns a uniform sample of n rows, in random order. The rows are
+     * chosen in a single pass over the row indices (reservoir sampling)
+     * and only the chosen rows are copied.
+     */
+    public TableData sample(int n, Random random) {
       if (height() < n)
         throw new RuntimeException(
           "Table height "+height()+" is lower than requested sample size "+n+"\n"
           );
-      TableData tmp = TableData.cast(deepClone());
-      Collections.shuffle(tmp.table);
-      TableData res = new TableData(tmp.labels,tmp.types);
-      for (int i=0; i<n; i++) {
-        res.addRow(tmp.get(i));
+      Reservoir<Integer> reservoir = new Reservoir<Integer>(n, random);
+      long i = 0;
+      while (true) {
+        long skip = reservoir.skippable();
+        if (skip >= height - i) break;
+        reservoir.skip(skip);
+        i += skip;
+        reservoir.offer((int) i++);
       }
-      return res;
+      return selectRows(toRows(reservoir.items()));
+    }
+
+    /**
+     * Returns a stratified sample: n rows (or all of them, if there are
+     * fewer) for each value of the given column. The groups appear in
+     * the order of their first row and the rows of each group in random
+     * order.
+     */
+    public TableData sample(int n, Random random, int by) {
+      Column column = columns.get(by);
+      LinkedHashMap<Data,Reservoir<Integer>> groups = new LinkedHashMap<Data,Reservoir<Integer>>();
+      for (int i=0; i<height; i++) {
+        Data key = column.get(i);
+        Reservoir<Integer> reservoir = groups.get(key);
+        if (reservoir == null) groups.put(key, reservoir = new Reservoir<Integer>(n, random));
+        reservoir.offer(i);
+      }
+      ArrayList<Integer> rows = new ArrayList<Integer>();
+      for (Reservoir<Integer> reservoir : groups.values()) rows.addAll(reservoir.items());
+      return selectRows(toRows(rows));
+    }
+
+    private static int[] toRows(ArrayList<Integer> list) {
+      int[] rows = new int[list.size()];
+      for (int i=0; i<rows.length; i++) rows[i] = list.get(i);
+      return rows;
     }
 
     public static TableData cast(Data data) {
@@ -181,7 +337,7 @@ public class TableData extends Data {
     * @return A Boolean data with the value of the expression.
     */
     public BooleanData evaluateRelational (int op, Data data) {
-      if ("Table" != data.getType())
+      if (data.getKind() != DataKind.TABLE)
         return new BooleanData(false);
 
       TableData d = (TableData) data;
@@ -200,7 +356,7 @@ public class TableData extends Data {
       switch (op) {
           case AslLexer.PLUS:
             TableData newTable = deepClone();
-            assert data.getType().equals("Table");
+            assert data.getKind() == DataKind.TABLE;
             TableData table2 = (TableData) data;
             newTable.merge(table2);
             return newTable;
@@ -212,60 +368,66 @@ public class TableData extends Data {
     }
 
 
+    /** Returns a dictionary with the non-Void values of the row. */
     public DictData get(int row) {
       if(row >= height()) throw new RuntimeException("Table height "+height()+" is lower than requested row "+row+"\n");
-      return table.get(row);
+      DictData res = new DictData();
+      for (int j=0; j<width(); j++) {
+        Column c = columns.get(j);
+        if (!c.isVoid(row)) res.put(labels.get(j), c.get(row));
+      }
+      return res;
     }
 
     public void DropRow(IntegerData row){
-      DropRow(row.getValue());
+      DropRow(row.toInt());
     }
 
     public void DropRow(int row){
       if(row >= height()) throw new RuntimeException("Table height "+height()+" is lower than requested row "+row+"\n");
-      table.remove(row);
+      for (int j=0; j<width(); j++) writable(j).remove(row);
+      height--;
     }
 
     public void DropColumn(StringData col){
-      if(!labels.contains(col)) throw new RuntimeException("Table has no column named " + col.getValue());
-      int pos = labels.indexOf(col);
+      int pos = columnIndex(col);
       labels.DropElem(col);
-      for(int i=0; i<height(); ++i){
-        table.get(i).DropEntry(col);
-      }
+      columns.remove(pos);
       types.remove(pos);
+      reindex();
     }
 
     public DictData get(Data d){
-      assert d.getType().equals("Integer");
+      assert d.getKind() == DataKind.INTEGER;
       IntegerData row = (IntegerData) d;
-      return get(row.getValue());
+      return get(row.toInt());
     }
     public Data get(int row, String col) {
       return get(row, new StringData(col));
     }
     public Data get(Data d, StringData col) {
-      assert d.getType().equals("Integer");
+      assert d.getKind() == DataKind.INTEGER;
       IntegerData row = (IntegerData) d;
-      return get(row.getValue(), col);
+      return get(row.toInt(), col);
     }
     public Data get(int row, StringData col) {
       if (height() <= row)
         throw new RuntimeException("Index out of bounds: " +
           Integer.toString(height()));
-      if (!labels.contains(col))
+      Integer pos = positions.get(col);
+      if (pos == null)
         throw new RuntimeException("Column name: " + col + " doesn't exist");
-      return get(row).get(col);
+      return columns.get(pos).get(row);
     }
     public Data get(int row, IntegerData col) {
       StringData col_name = labels.get(col);
       return get(row, col_name);
     }
     public Data get(int row, Data col) {
-      if (col.getType().equals("Integer")) {
+      if (col.getKind() == DataKind.INTEGER) {
         return get(row, IntegerData.cast(col));
       } else {
-        assert col.getType().equals("String");
+        assert col.getKind() == DataKind.STRING;
         return get(row, StringData.cast(col));
       }
     }
@@ -279,27 +441,118 @@ public class TableData extends Data {
     }
 
     public void put(int row, StringData col, Data data) {
-      while (height() <= row)
-        addRow();
-      String type = types.get(labels.indexOf(col));
-      if(type.equals("Untyped")) {
-        types.set(labels.indexOf(col),data.getType());
-        type = data.getType();
+      put(row, columnIndex(col), data);
+    }
+
+    /**
+     * Stores a value in a cell. The type of an untyped column is defined
+     * by the first value. Integer columns are promoted to Float when a
+     * Float value is stored. Storing Void leaves the cell missing.
+     */
+    public void put(int row, int pos, Data data) {
+      if (height() <= row)
+        resize(row+1);
+      if (Data.isType(DataKind.VOID, data)) {
+        writable(pos).clear(row);
+        return;
+      }
+      declareType(pos, data.getType());
+      writable(pos).set(row, data);
+    }
+
+    /**
+     * Changes the type of a column as storing a value of the given type
+     * would do, without storing it. It raises an exception if the types
+     * are not compatible.
+     */
+    void declareType(int pos, String dataType) {
+      String old = types.get(pos);
+      String type = joinType(pos, old, dataType);
+      if (type.equals(old)) return;
+      types.set(pos, type);
+      if (old.equals("Untyped")) {
+        Column c = Column.create(type);
+        c.resize(height);
+        columns.set(pos, c);
+      } else {
+        columns.set(pos, ((IntegerColumn) writable(pos)).toFloatColumn());
       }
-      if(!type.equals(data.getType())) throw new RuntimeException("Column " + col.getValue()+ " with type " + types.get(labels.indexOf(col)) + " is not compatible with type " + data.getType());
-      table.get(row).put(col, data.deepClone());
+    }
+
+    /**
+     * Returns the type of a column of the given type after storing a value
+     * of type dataType. It raises an exception if the types are not
+     * compatible.
+     */
+    private String joinType(int pos, String type, String dataType) {
+      if (type.equals("Untyped")) return dataType;
+      if (type.equals("Integer") && dataType.equals("Float")) return "Float";
+      if(!type.equals(dataType) && !(type.equals("Float") && dataType.equals("Integer")))
+        throw new RuntimeException("Column " + labels.get(pos).getValue()+ " with type " + type + " is not compatible with type " + dataType);
+      return type;
+    }
+
+    /** Changes the number of rows. New rows have missing cells. */
+    private void resize(int n) {
+      for (int j=0; j<width(); j++) writable(j).resize(n);
+      height = n;
     }
 
     /**Adds a row in the table**/
     public void addRow(){
-      table.add(new DictData());
+      resize(height + 1);
     }
     public void addRow(DictData dd){
-      boolean compatibleRow = true;
-      int rowid = height();
-      for(Map.Entry<StringData,Data> entry : dd.entrySet()){
-        if(!labels.contains(entry.getKey())) throw new RuntimeException(dd.toString() + " not compatible with the current table shape " + labels.toString());
-        put(rowid, entry.getKey(), entry.getValue());
+      addRows(new DictData[] {dd});
+    }
+
+    public void addRows(ListData<?> rows){
+      DictData[] dicts = new DictData[rows.size()];
+      for (int i=0; i<dicts.length; i++) dicts[i] = DictData.cast(rows.get(i));
+      addRows(dicts);
+    }
+
+    /**
+     * Adds the rows of some dictionaries. The columns and the types of
+     * the values of all the rows are checked before the table is modified,
+     * so an error leaves it unchanged, and the storage of the columns is
+     * extended once.
+     */
+    private void addRows(DictData[] rows){
+      int n = rows.length;
+      int[][] pos = new int[n][];
+      String[] target = types.toArray(new String[0]);
+      for (int i=0; i<n; i++) {
+        pos[i] = rowPositions(rows[i]);
+        for (int k = 0; k < pos[i].length; k++) {
+          Data d = rows[i].valueAt(k);
+          int p = pos[i][k];
+          if (!Data.isType(DataKind.VOID, d)) target[p] = joinType(p, target[p], d.getType());
+        }
+      }
+      for (int j=0; j<width(); j++) declareType(j, target[j]);
+      int first = height();
+      resize(first + n);
+      for (int i=0; i<n; i++) putRow(first + i, rows[i], pos[i]);
+    }
+
+    /** Returns the positions of the keys of a row (in the order of the entries). */
+    private int[] rowPositions(DictData dd){
+      int[] pos = new int[dd.size()];
+      for(int k = 0; k < pos.length; k++){
+        Integer p = positions.get(dd.keyAt(k));
+        if(p == null) throw new RuntimeException(dd.toString() + " not compatible with the current table shape " + labels.toString());
+        pos[k] = p;
+      }
+      return pos;
+    }
+
+    /** Stores the values of a row whose types have been declared (see {@link #addRows}). */
+    private void putRow(int row, DictData dd, int[] pos){
+      for(int k = 0; k < pos.length; k++){
+        Data d = dd.valueAt(k);
+        if (Data.isType(DataKind.VOID, d)) writable(pos[k]).clear(row);
+        else writable(pos[k]).set(row, d);
       }
     }
 
@@ -318,33 +571,30 @@ public class TableData extends Data {
 
     /**Adds a column in the table**/
     public void addColumn(StringData col){
-      int index = labels.indexOf(col);
-      String type = "Untyped";
-      if (index < 0) {
-        index = width();
-        labels.add(StringData.cast(col.deepClone()));
-        types.add(type);
-      } else {
-        types.add(index, type);
-      }
+      if (positions.containsKey(col)) return;
+      labels.add(StringData.cast(col.deepClone()));
+      positions.put(labels.get(width()-1), width()-1);
+      types.add("Untyped");
+      Column c = Column.create("Untyped");
+      c.resize(height);
+      columns.add(c);
     }
 
     public void addColumn(StringData col, Data elem){
-      int index = labels.indexOf(col);
-      String type = "";
-      if (!Data.isType("Void",elem))
-        type = elem.getType();
-      else
-        type = "Untyped";
-      if (index < 0) {
+      Integer index = positions.get(col);
+      if (index == null) {
         index = width();
         labels.add(StringData.cast(col.deepClone()));
-        types.add(type);
-      } else {
-        types.add(index, type);
+        positions.put(labels.get(index), index);
+        types.add("Untyped");
+        columns.add(null);
       }
+      types.set(index, "Untyped");
+      Column c = Column.create("Untyped");
+      c.resize(height);
+      columns.set(index, c);
       for (int i=0; i<height(); i++) {
-          table.get(i).put(col, elem.deepClone());
+          put(i, index, elem);
       }
     }
 
@@ -0,0 +1,195 @@
+package interp;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+
+/**
+ * Renderer of tables. The text is written directly to the output, row
+ * by row, so the cost is linear in the number of printed cells. Tables
+ * with more rows than the maximum are printed with the first and the
+ * last rows and a line with the number of omitted rows.
+ *
+ * Two formats are supported: the format of write/writeln (labels,
+ * contents and types separated by commas) and the aligned format of
+ * the special function show.
+ */
+
+public class TablePrinter {
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Maximum length of the text of a cell in the aligned format. */
+    private static final int MAX_WIDTH = 40;
+
+    /** Maximum number of rows printed by write (0 means no limit). */
+    private static volatile int maxRows = 0;
+
+    /** Number of rows printed by show when no number is given. */
+    public static final int SHOW_ROWS = 20;
+
+    /** Defines the maximum number of rows printed by write (0 means no limit). */
+    public static void setMaxRows(int n) {
+        maxRows = n < 0 ? 0 : n;
+    }
+
+    private static void append(Appendable out, String s) {
+        try {
+            out.append(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String cell(Column c, int row) {
+        return c.isVoid(row) ? "" : c.get(row).toString();
+    }
+
+    /**
+     * Output that writes the text as format strings, as write does with
+     * the text of all the data (see {@link Data#print}). The text is
+     * appended in whole lines, so it is formatted as if it were written
+     * at once.
+     */
+    private static final class Formatted implements Appendable {
+        private final PrintStream out;
+
+        Formatted(PrintStream out) {
+            this.out = out;
+        }
+
+        public Appendable append(CharSequence s) {
+            out.format(s.toString());
+            return this;
+        }
+
+        public Appendable append(CharSequence s, int start, int end) {
+            return append(s.subSequence(start, end));
+        }
+
+        public Appendable append(char c) {
+            return append(String.valueOf(c));
+        }
+    }
+
+    /** Writes the table to the output of write/writeln (see {@link Data#print}). */
+    public static void write(TableData t, PrintStream out) {
+        print(t, new Formatted(out));
+    }
+
+    /** Writes the table in the format of write/writeln. */
+    public static void print(TableData t, Appendable out) {
+        ListData<StringData> labels = t.getStringDataLabels();
+        int width = t.width();
+        int height = t.height();
+        StringBuilder line = new StringBuilder();
+        append(out, "Labels:" + NEWLINE);
+        for (int j = 0; j < width; j++) line.append(labels.get(j).toString()).append(",  ");
+        line.append(NEWLINE).append("Contents:").append(NEWLINE);
+        append(out, line.toString());
+
+        int limit = maxRows;
+        int head = limit == 0 || height <= limit ? height : (limit + 1) / 2;
+        int tail = limit == 0 || height <= limit ? 0 : limit / 2;
+        for (int i = 0; i < height; i++) {
+            if (i == head) {
+                append(out, "... (" + (height - head - tail) + " rows)" + NEWLINE);
+                i = height - tail;
+                if (i >= height) break;
+            }
+            line.setLength(0);
+            for (int j = 0; j < width; j++) line.append(cell(t.getColumn(j), i)).append(",  ");
+            line.append(NEWLINE);
+            append(out, line.toString());
+        }
+
+        line.setLength(0);
+        line.append("Types:").append(NEWLINE);
+        for (String type : t.getTypes()) line.append(type).append(",  ");
+        line.append(NEWLINE);
+        append(out, line.toString());
+    }
+
+    /**
+     * Writes some rows of the table with aligned columns.
+     * @param n Number of rows: the first n rows if positive, the
+     *   last -n rows if negative. If zero, the first and last rows
+     *   up to {@link #SHOW_ROWS} rows.
+     */
+    public static void show(TableData t, Appendable out, int n) {
+        int height = t.height();
+        int width = t.width();
+        int head, tail;
+        if (n > 0) {
+            head = Math.min(n, height);
+            tail = 0;
+        } else if (n < 0) {
+            head = 0;
+            tail = Math.min(-n, height);
+        } else if (height <= SHOW_ROWS) {
+            head = height;
+            tail = 0;
+        } else {
+            head = SHOW_ROWS / 2;
+            tail = SHOW_ROWS / 2;
+        }
+
+        // Rows to print (-1 marks the omitted rows)
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        for (int i = 0; i < head; i++) rows.add(i);
+        if (head + tail < height) rows.add(-1);
+        for (int i = height - tail; i < height; i++) rows.add(i);
+
+        // Texts of the cells and width of the columns
+        String[][] text = new String[rows.size()][width];
+        int[] widths = new int[width];
+        ListData<StringData> labels = t.getStringDataLabels();
+        for (int j = 0; j < width; j++) widths[j] = Math.min(MAX_WIDTH, labels.get(j).getValue().length());
+        for (int r = 0; r < rows.size(); r++) {
+            int i = rows.get(r);
+            if (i < 0) continue;
+            for (int j = 0; j < width; j++) {
+                String s = cell(t.getColumn(j), i);
+                if (s.length() > MAX_WIDTH) s = s.substring(0, MAX_WIDTH - 3) + "...";
+                text[r][j] = s;
+                widths[j] = Math.max(widths[j], s.length());
+            }
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (int j = 0; j < width; j++) {
+            String label = labels.get(j).getValue();
+            if (label.length() > MAX_WIDTH) label = label.substring(0, MAX_WIDTH - 3) + "...";
+            pad(line, label, widths[j], j == width - 1);
+        }
+        line.append(NEWLINE);
+        for (int j = 0; j < width; j++) {
+            for (int k = 0; k < widths[j]; k++) line.append('-');
+            if (j < width - 1) line.append("  ");
+        }
+        line.append(NEWLINE);
+        append(out, line.toString());
+        for (int r = 0; r < rows.size(); r++) {
+            line.setLength(0);
+            if (rows.get(r) < 0) {
+                line.append("... (").append(height - head - tail).append(" rows)");
+            } else {
+                for (int j = 0; j < width; j++) pad(line, text[r][j], widths[j], j == width - 1);
+                int end = line.length();
+                while (end > 0 && line.charAt(end - 1) == ' ') end--;
+                line.setLength(end);
+            }
+            line.append(NEWLINE);
+            append(out, line.toString());
+        }
+        append(out, "[" + height + " rows x " + width + " columns]" + NEWLINE);
+    }
+
+    private static void pad(StringBuilder line, String s, int width, boolean last) {
+        line.append(s);
+        if (last) return;
+        for (int k = s.length(); k < width; k++) line.append(' ');
+        line.append("  ");
+    }
+}
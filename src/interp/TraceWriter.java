@@ -0,0 +1,244 @@
+package interp;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writer of the trace of function calls. The interpreter only builds
+ * small events with summaries of the values (large values are replaced
+ * by a description of their size and long texts are truncated). The
+ * events are written in binary format by a background thread that
+ * consumes them from a bounded buffer. If the buffer is full, events
+ * are dropped and the number of dropped events is recorded in the
+ * trace, so the execution is never blocked by the trace.
+ *
+ * Format of the file (see {@link DataOutputStream}): the magic number
+ * and version, followed by a sequence of events:
+ *   CALL depth line name nargs (byref name value)*
+ *   RETURN depth line hasresult result nrefs (name value)*
+ *   DROPPED count
+ * The text trace is rendered with {@link #render}.
+ */
+
+public class TraceWriter {
+
+    public static final int MAGIC = 0x4d4a5452; // "MJTR"
+    public static final int VERSION = 1;
+
+    public static final byte CALL = 'C';
+    public static final byte RETURN = 'R';
+    public static final byte DROPPED = 'D';
+
+    /** Maximum length of the text of a value. */
+    private static final int MAX_TEXT = 200;
+
+    /** Maximum number of elements of the containers written in full. */
+    private static final int MAX_ELEMENTS = 16;
+
+    /** Capacity of the buffer of pending events. */
+    private static final int CAPACITY = 1 << 16;
+
+    /** Event of the trace. */
+    private static class Event {
+        byte kind;
+        int depth, line;
+        String name;        // Function name (CALL) or result (RETURN)
+        boolean[] refs;     // Parameters passed by reference (CALL)
+        String[] names;
+        String[] values;
+        long dropped;       // Number of dropped events (DROPPED)
+    }
+
+    private static final Event END = new Event();
+
+    private final ArrayBlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(CAPACITY);
+    private final DataOutputStream out;
+    private final Thread writer;
+    private long dropped = 0;
+    private volatile IOException error = null;
+
+    public TraceWriter(String filename) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writer = new Thread(this::drain, "mojo-trace");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Returns a short description of a value. */
+    public static String summary(Data d) {
+        if (d instanceof TableData) {
+            TableData t = (TableData) d;
+            return "Table(" + t.height() + " rows, " + t.width() + " columns)";
+        }
+        if (d instanceof ListData && ((ListData) d).size() > MAX_ELEMENTS) {
+            return "List(" + ((ListData) d).size() + " elements)";
+        }
+        if (d instanceof DictData && ((DictData) d).size() > MAX_ELEMENTS) {
+            return "Dict(" + ((DictData) d).size() + " entries)";
+        }
+        String s = d.toString();
+        if (s.length() > MAX_TEXT) s = s.substring(0, MAX_TEXT) + "...";
+        return s;
+    }
+
+    /** Records the call of a function. */
+    public void call(int depth, int line, String fname, boolean[] refs, String[] names, Data[] values) {
+        Event e = new Event();
+        e.kind = CALL;
+        e.depth = depth;
+        e.line = line;
+        e.name = fname;
+        e.refs = refs;
+        e.names = names;
+        e.values = summaries(values);
+        put(e);
+    }
+
+    /**
+     * Records the return of a function.
+     * @param result The returned value (null if void).
+     * @param names The parameters passed by reference.
+     * @param values The values of the parameters passed by reference.
+     */
+    public void ret(int depth, int line, Data result, String[] names, Data[] values) {
+        Event e = new Event();
+        e.kind = RETURN;
+        e.depth = depth;
+        e.line = line;
+        e.name = result == null ? null : summary(result);
+        e.names = names;
+        e.values = summaries(values);
+        put(e);
+    }
+
+    private static String[] summaries(Data[] values) {
+        String[] res = new String[values.length];
+        for (int i = 0; i < values.length; ++i) res[i] = summary(values[i]);
+        return res;
+    }
+
+    private void put(Event e) {
+        if (dropped > 0) {
+            Event d = new Event();
+            d.kind = DROPPED;
+            d.dropped = dropped;
+            if (!queue.offer(d)) {
+                dropped++;
+                return;
+            }
+            dropped = 0;
+        }
+        if (!queue.offer(e)) dropped++;
+    }
+
+    /** Writes the pending events and closes the file. */
+    public void close() {
+        try {
+            if (dropped > 0) {
+                Event d = new Event();
+                d.kind = DROPPED;
+                d.dropped = dropped;
+                queue.put(d);
+            }
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) throw new RuntimeException("Error writing the trace: " + error.getMessage());
+    }
+
+    /** Body of the background thread. */
+    private void drain() {
+        try {
+            while (true) {
+                Event e = queue.poll();
+                if (e == null) {
+                    // Nothing pending: make the written events visible
+                    out.flush();
+                    e = queue.take();
+                }
+                if (e == END) break;
+                write(e);
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // Terminate
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+        }
+    }
+
+    private void write(Event e) throws IOException {
+        out.writeByte(e.kind);
+        if (e.kind == DROPPED) {
+            out.writeLong(e.dropped);
+            return;
+        }
+        out.writeInt(e.depth);
+        out.writeInt(e.line);
+        if (e.kind == CALL) {
+            out.writeUTF(e.name);
+            out.writeInt(e.names.length);
+            for (int i = 0; i < e.names.length; ++i) {
+                out.writeBoolean(e.refs[i]);
+                out.writeUTF(e.names[i]);
+                out.writeUTF(e.values[i]);
+            }
+        } else {
+            out.writeBoolean(e.name != null);
+            if (e.name != null) out.writeUTF(e.name);
+            out.writeInt(e.names.length);
+            for (int i = 0; i < e.names.length; ++i) {
+                out.writeUTF(e.names[i]);
+                out.writeUTF(e.values[i]);
+            }
+        }
+    }
+
+    /** Writes the text version of a binary trace. */
+    public static void render(InputStream input, PrintStream text) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) throw new IOException("not a MoJo trace");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("unsupported trace version " + version);
+        while (true) {
+            int kind = in.read();
+            if (kind < 0) break;
+            if (kind == DROPPED) {
+                text.println("<" + in.readLong() + " events dropped>");
+                continue;
+            }
+            int depth = in.readInt();
+            int line = in.readInt();
+            for (int i = 0; i < depth; ++i) text.print("|   ");
+            if (kind == CALL) {
+                text.print(in.readUTF() + "(");
+                int nargs = in.readInt();
+                for (int i = 0; i < nargs; ++i) {
+                    if (i > 0) text.print(", ");
+                    if (in.readBoolean()) text.print("&");
+                    text.print(in.readUTF() + "=" + in.readUTF());
+                }
+                text.print(") ");
+                if (depth == 0) text.println("<entry point>");
+                else text.println("<line " + line + ">");
+            } else if (kind == RETURN) {
+                text.print("return");
+                if (in.readBoolean()) text.print(" " + in.readUTF());
+                int nrefs = in.readInt();
+                for (int i = 0; i < nrefs; ++i) text.print(", &" + in.readUTF() + "=" + in.readUTF());
+                text.println(" <line " + line + ">");
+            } else {
+                throw new IOException("corrupted trace");
+            }
+        }
+    }
+}
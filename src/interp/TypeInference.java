@@ -0,0 +1,186 @@
+package interp;
+
+import parser.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Static inference of the types of the expressions of each function.
+ * The type of an expression is recorded in its node (see
+ * {@link AslTree#getKind}) when all its evaluations produce data of
+ * that type, so the interpreter can skip the dynamic checks and use
+ * specialised paths (e.g. integer arithmetic without intermediate data).
+ *
+ * The types of the literals, the operators and the special functions
+ * with a known result are propagated bottom up. A variable has a type
+ * if all the values assigned to it have the same type: the parameters,
+ * the variables passed by reference and the variables of the for loops
+ * over lists and tables have no type. The types of the variables are
+ * computed optimistically until a fixpoint is reached.
+ */
+
+public class TypeInference {
+
+    /** Types of the variables of the function (absent: no value yet). */
+    private final HashMap<String,DataKind> variables = new HashMap<String,DataKind>();
+
+    /** Variables with values of different or unknown types. */
+    private final HashSet<String> untyped = new HashSet<String>();
+
+    /** Set when an expression reads a variable with no value yet. */
+    private boolean incomplete;
+
+    /** Whether the variables with no value yet are considered untyped. */
+    private boolean pessimistic = false;
+
+    private TypeInference() {}
+
+    /** Records the inferred types in the trees of the functions. */
+    public static void annotate(Map<String,AslTree> FuncName2Tree) {
+        for (AslTree f : FuncName2Tree.values()) {
+            TypeInference inference = new TypeInference();
+            inference.function(f, FuncName2Tree);
+        }
+    }
+
+    private void function(AslTree f, Map<String,AslTree> functions) {
+        AslTree params = f.getChild(1);
+        for (int i = 0; i < params.getChildCount(); ++i) {
+            untyped.add(params.getChild(i).getText());
+        }
+        AslTree body = f.getChild(2);
+        while (definitions(body, functions)) {}
+        // The variables with no value after the optimistic iteration
+        // are only assigned from themselves: they get no type.
+        pessimistic = true;
+        while (definitions(body, functions)) {}
+        record(body);
+    }
+
+    /** Gives a type to a variable, or removes it. Returns whether it changed. */
+    private boolean define(String var, DataKind kind) {
+        if (untyped.contains(var)) return false;
+        DataKind old = variables.get(var);
+        if (kind != null && (old == null || old == kind)) {
+            variables.put(var, kind);
+            return old == null;
+        }
+        variables.remove(var);
+        untyped.add(var);
+        return true;
+    }
+
+    /** Visits the definitions of the variables of the tree. Returns whether a type changed. */
+    private boolean definitions(AslTree t, Map<String,AslTree> functions) {
+        boolean changed = false;
+        switch (t.getType()) {
+            case AslLexer.ASSIGN: {
+                if (t.getChild(0).getType() == AslLexer.ACCESS) break;
+                incomplete = false;
+                DataKind kind = infer(t.getChild(1));
+                if (!incomplete) changed = define(t.getChild(0).getText(), kind);
+                break;
+            }
+            case AslLexer.READ:
+                changed = define(t.getChild(0).getText(), DataKind.INTEGER);
+                break;
+            case AslLexer.FOR: {
+                String var = t.getChild(0).getText();
+                boolean range = t.getChild(1).getType() == AslLexer.DOTDOT;
+                changed = define(var, range ? DataKind.INTEGER : null);
+                break;
+            }
+            case AslLexer.FUNCALL: {
+                String fname = t.getChild(0).getText();
+                AslTree args = t.getChild(1);
+                int n = args == null ? 0 : args.getChildCount();
+                FuncFactory factory = FuncFactory.getinstance();
+                AslTree f = functions.get(fname);
+                for (int i = 0; i < n; ++i) {
+                    AslTree a = args.getChild(i);
+                    if (a.getType() != AslLexer.ID) continue;
+                    boolean byReference;
+                    if (factory.contains(fname)) {
+                        byReference = factory.getFunction(fname).modifiesArguments();
+                    } else {
+                        byReference = f != null && i < f.getChild(1).getChildCount()
+                            && f.getChild(1).getChild(i).getType() == AslLexer.PREF;
+                    }
+                    if (byReference) changed = define(a.getText(), null) || changed;
+                }
+                break;
+            }
+            default: break;
+        }
+        for (int i = 0; i < t.getChildCount(); ++i) {
+            changed = definitions(t.getChild(i), functions) || changed;
+        }
+        return changed;
+    }
+
+    /** Returns the type of an expression, or null if it is not known. */
+    private DataKind infer(AslTree t) {
+        switch (t.getType()) {
+            case AslLexer.INT: return DataKind.INTEGER;
+            case AslLexer.FLOAT: return DataKind.FLOAT;
+            case AslLexer.BOOLEAN: return DataKind.BOOLEAN;
+            case AslLexer.STRING: return DataKind.STRING;
+            case AslLexer.LIST: return DataKind.LIST;
+            case AslLexer.DICT: return DataKind.DICT;
+            case AslLexer.FROM: return DataKind.TABLE;
+            case AslLexer.ID: {
+                String var = t.getText();
+                if (untyped.contains(var)) return null;
+                if (!variables.containsKey(var)) {
+                    if (pessimistic) untyped.add(var);
+                    else incomplete = true;
+                }
+                return variables.get(var);
+            }
+            case AslLexer.FUNCALL: {
+                FuncFactory factory = FuncFactory.getinstance();
+                String fname = t.getChild(0).getText();
+                return factory.contains(fname) ? factory.getFunction(fname).resultKind() : null;
+            }
+            case AslLexer.EQUAL:
+            case AslLexer.NOT_EQUAL:
+            case AslLexer.LT:
+            case AslLexer.LE:
+            case AslLexer.GT:
+            case AslLexer.GE:
+            case AslLexer.AND:
+            case AslLexer.OR:
+            case AslLexer.NOT:
+                return DataKind.BOOLEAN;
+            case AslLexer.PLUS:
+            case AslLexer.MINUS:
+            case AslLexer.MUL:
+            case AslLexer.DIV:
+            case AslLexer.MOD: {
+                DataKind a = infer(t.getChild(0));
+                if (a == null || !a.isNumeric()) return null;
+                if (t.getChildCount() == 1) return a;
+                DataKind b = infer(t.getChild(1));
+                if (b == null || !b.isNumeric()) return null;
+                return a == DataKind.INTEGER && b == DataKind.INTEGER ? DataKind.INTEGER : DataKind.FLOAT;
+            }
+            default: return null;
+        }
+    }
+
+    /**
+     * Records the types of the expressions evaluated by the interpreter.
+     * The actions of the from blocks are evaluated on the rows of the
+     * tables, so only their sources are visited.
+     */
+    private void record(AslTree t) {
+        if (t.getType() == AslLexer.FROM) {
+            record(t.getChild(0));
+            return;
+        }
+        t.setKind(infer(t));
+        for (int i = 0; i < t.getChildCount(); ++i) record(t.getChild(i));
+    }
+}
@@ -5,7 +5,7 @@ public class VoidData extends Data {
 
   public VoidData() { assert true; }
 
-  public String getType() { return "Void"; }
+  public DataKind getKind() { return DataKind.VOID; }
 
   public String toString() { return "Void"; }
 
@@ -40,6 +40,7 @@ public class VoidData extends Data {
 
   /**
   * Evaluation of expressions with relational operators.
+  * Void is not ordered with respect to any value.
   * @param op Type of operator (token).
   * @return A Boolean data with the value of the expression.
   */
@@ -49,8 +50,8 @@ public class VoidData extends Data {
           return new BooleanData(equals(data));
         case AslLexer.NOT_EQUAL:
           return new BooleanData(!equals(data));
-        default: assert false;
+        default:
+          return new BooleanData(false);
     }
-    return null;
   }
 }
@@ -70,6 +70,7 @@ instruction
         : assign          // Assignment
         | ite_stmt        // if-then-else
         | while_stmt      // while statement
+        | for_stmt        // for statement
         | funcall         // Call to a procedure (no result produced)
         | return_stmt     // Return statement
         | read            // Read a variable
@@ -90,6 +91,14 @@ ite_stmt	:	IF^ '('! expr ')'! block_instructions (ELSE! block_instructions)? END
 while_stmt	:	WHILE^ '('! expr ')'! block_instructions END!
             ;
 
+// for statement: iterates over the rows of a table, the elements
+// of a list or the integers of a range (both bounds included)
+for_stmt	:	FOR^ ID IN! iterable block_instructions END!
+            ;
+
+iterable	:	expr (DOTDOT^ expr)?
+            ;
+
 // Return statement with an expression
 return_stmt	:	RETURN^ expr?
         ;
@@ -127,6 +136,7 @@ factor  :   (NOT^ | PLUS^ | MINUS^)? atom
 // in parenthesis
 atom    :   var
         |   INT
+        |   FLOAT
         |   (b=TRUE | b=FALSE)  -> ^(BOOLEAN[$b,$b.text])
         |   funcall
         |   STRING
@@ -202,6 +212,9 @@ IF        : 'if' ;
 THEN      : 'then' ;
 ELSE      : 'else' ;
 WHILE     : 'while' ;
+FOR       : 'for' ;
+IN        : 'in' ;
+DOTDOT    : '..' ;
 FUNC      : 'function' ;
 END       : 'end' ;
 RETURN    : 'return' ;
@@ -217,7 +230,9 @@ TRUE      : 'true' ;
 FALSE     : 'false';
 WITH      : 'with';
 ID        :	('a'..'z'|'A'..'Z'|'_') ('a'..'z'|'A'..'Z'|'0'..'9'|'_')* '!'?;
-INT       :	'0'..'9'+ ;
+INT       :	'0'..'9'+ (('.' '0'..'9') => '.' '0'..'9'+ {$type=FLOAT;})? ;
+fragment
+FLOAT     : ;
 
 // C-style comments
 COMMENT	: '#' ~('-') ~('\n'|'\r')* '\r'? {$channel=HIDDEN;}